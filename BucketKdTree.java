@@ -0,0 +1,493 @@
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.Stack;
+import edu.princeton.cs.algs4.StdDraw;
+import edu.princeton.cs.algs4.StdOut;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * This mutable data type represents a set of points in the "Unit Square".
+ * 
+ * Like KdTree, its representation is a 2d-tree, but rather than keeping one
+ * point in every Node, only the leaves hold points, in buckets of up to B
+ * of them each.  A bucket is a pair of parallel double[] arrays, which
+ * range() and nearest() scan linearly, in place of the last log B levels of
+ * pointer chasing.
+ * 
+ * A bucket is only split when it overflows, at the median of its points
+ * along whichever axis they are more spread out on, so both sides of every
+ * split are non-empty.  The left/bottom side of a split holds the points
+ * strictly below it, and the right/top side holds the rest.
+ * 
+ * As in KdTree, any subtree which grows too deep for the number of points
+ * in it is rebuilt, in the manner of a scapegoat tree, so the height stays
+ * proportional to log (n / B).
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class BucketKdTree {
+    
+    // the weight-balance factor which bounds the height of any subtree
+    private static final double ALPHA = 0.75;
+    
+    // the bucket size used by the no-argument constructor
+    private static final int DEFAULT_BUCKET_SIZE = 16;
+    
+    private final int bucketSize;
+    private Node root;
+    
+    // the depth of a just-split bucket which calls for a rebuild, or -1
+    private int scapegoatDepth = -1;
+    
+    /**
+     * Construct an empty set of points, with buckets of up to 16 points.
+     */
+    public BucketKdTree() {
+        this(DEFAULT_BUCKET_SIZE);
+    }
+    
+    /**
+     * Construct an empty set of points, with buckets of up to the given
+     * number of points.
+     * 
+     * @param bucketSize the greatest number of points in each leaf
+     * @throws IllegalArgumentException if {@code bucketSize} is not positive
+     */
+    public BucketKdTree(int bucketSize) {
+        if (bucketSize <= 0) throw new java.lang.IllegalArgumentException(
+                "called BucketKdTree() with a non-positive bucket size");
+        this.bucketSize = bucketSize;
+    }
+    
+    /**
+     * @return the greatest number of points in each leaf.
+     */
+    public int bucketSize() {
+        return bucketSize;
+    }
+    
+    /**
+     * Is the set empty?
+     * 
+     * @return {@code true} if this set is empty;
+     *         {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+    
+    /**
+     * @return the number of points in the set.
+     */
+    public int size() {
+        if (root == null) return 0;
+        return root.size;
+    }
+    
+    /**
+     * Returns the height of the tree (a lone bucket has height 0), as in
+     * algs4.BST.
+     * 
+     * @return the height of the tree
+     */
+    public int height() {
+        return height(root);
+    }
+    
+    private static int height(Node n) {
+        if (n == null) return -1;
+        if (n.isLeaf()) return 0;
+        return 1 + Math.max(height(n.lb), height(n.rt));
+    }
+    
+    /**
+     * Add the point to the set (if it is not already in the set).
+     * 
+     * @param p the point to add
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public void insert(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called insert() with a null Point2D");
+        if (root == null) {
+            root = new Node(new double[bucketSize], new double[bucketSize]);
+            root.add(p.x(), p.y());
+            return;
+        }
+        insert(root, p.x(), p.y(), 0);
+        scapegoatDepth = -1;
+    }
+    
+    /**
+     * Add (x, y) to the subtree rooted at n, which is at the given depth.
+     * 
+     * @return {@code true} if the point was added;
+     *         {@code false} if it was already in the subtree
+     */
+    private boolean insert(Node n, double x, double y, int depth) {
+        if (n.isLeaf()) {
+            
+            // Duplicates are silently dropped
+            for (int i = 0; i < n.size; i++) {
+                if (n.xs[i] == x && n.ys[i] == y) return false;
+            }
+            if (n.size < bucketSize) n.add(x, y);
+            else {
+                split(n, x, y);
+                if (depth + 1 > maxHeight(root.size + 1)) {
+                    scapegoatDepth = depth + 1;
+                }
+            }
+            return true;
+        }
+        
+        Node child = (n.vertical ? x : y) < n.split ? n.lb : n.rt;
+        if (!insert(child, x, y, depth + 1)) return false;
+        n.size++;
+        
+        // Rebuild the scapegoat, if it's this Node
+        if (scapegoatDepth >= 0
+                && scapegoatDepth - depth > maxHeight(n.size)) {
+            scapegoatDepth = -1;
+            double[] xs = new double[n.size];
+            double[] ys = new double[n.size];
+            collect(n, xs, ys, 0);
+            n.become(build(xs, ys, 0, n.size - 1));
+        }
+        return true;
+    }
+    
+    /**
+     * The greatest height which a subtree of the given number of points may
+     * reach before it must be rebuilt.
+     * 
+     * A balanced subtree's leaves are at least half full, so there are at
+     * most 2n / B of them, and a scapegoat tree of that many leaves stays
+     * within log_(1 / ALPHA) of it.
+     */
+    private int maxHeight(int size) {
+        double leaves = 2.0 * size / bucketSize + 1;
+        return (int) (Math.log(leaves) / Math.log(1 / ALPHA)) + 1;
+    }
+    
+    /**
+     * Turn the full bucket n into a Node with two buckets, which between
+     * them hold n's points and (x, y).
+     */
+    private void split(Node n, double x, double y) {
+        double[] xs = java.util.Arrays.copyOf(n.xs, n.size + 1);
+        double[] ys = java.util.Arrays.copyOf(n.ys, n.size + 1);
+        xs[n.size] = x;
+        ys[n.size] = y;
+        n.become(build(xs, ys, 0, n.size));
+    }
+    
+    // gather the points in the subtree rooted at n into xs and ys, from i
+    private static int collect(Node n, double[] xs, double[] ys, int i) {
+        if (n.isLeaf()) {
+            System.arraycopy(n.xs, 0, xs, i, n.size);
+            System.arraycopy(n.ys, 0, ys, i, n.size);
+            return i + n.size;
+        }
+        i = collect(n.lb, xs, ys, i);
+        return collect(n.rt, xs, ys, i);
+    }
+    
+    /**
+     * Build a balanced subtree out of the distinct points
+     * (xs[lo..hi], ys[lo..hi]), splitting until every bucket fits.
+     */
+    private Node build(double[] xs, double[] ys, int lo, int hi) {
+        if (hi - lo + 1 <= bucketSize) {
+            Node n = new Node(new double[bucketSize], new double[bucketSize]);
+            System.arraycopy(xs, lo, n.xs, 0, hi - lo + 1);
+            System.arraycopy(ys, lo, n.ys, 0, hi - lo + 1);
+            n.size = hi - lo + 1;
+            return n;
+        }
+        
+        // Split along whichever axis the points are more spread out on
+        double xmin = Double.POSITIVE_INFINITY;
+        double xmax = Double.NEGATIVE_INFINITY;
+        double ymin = Double.POSITIVE_INFINITY;
+        double ymax = Double.NEGATIVE_INFINITY;
+        for (int i = lo; i <= hi; i++) {
+            xmin = Math.min(xmin, xs[i]);
+            xmax = Math.max(xmax, xs[i]);
+            ymin = Math.min(ymin, ys[i]);
+            ymax = Math.max(ymax, ys[i]);
+        }
+        boolean vertical = xmax - xmin >= ymax - ymin;
+        double[] a = vertical ? xs : ys;
+        double[] b = vertical ? ys : xs;
+        
+        // Split at the median, unless it's also the least coordinate, in
+        // which case split just above it so that neither side is empty.
+        // Since the points are distinct and spread out along this axis,
+        // there is always some coordinate above the least.
+        int mid = lo + (hi - lo + 1) / 2;
+        PointArrays.select(a, b, lo, hi, mid);
+        double key = a[mid];
+        if (key == (vertical ? xmin : ymin)) {
+            key = Double.POSITIVE_INFINITY;
+            for (int i = mid + 1; i <= hi; i++) {
+                if (a[i] > a[mid] && a[i] < key) key = a[i];
+            }
+        }
+        
+        // Move everything below the split to the front
+        int j = lo;
+        for (int i = lo; i <= hi; i++) {
+            if (a[i] < key) PointArrays.exch(a, b, i, j++);
+        }
+        
+        Node n = new Node(null, null);
+        n.vertical = vertical;
+        n.split = key;
+        n.lb = build(xs, ys, lo, j - 1);
+        n.rt = build(xs, ys, j, hi);
+        n.size = hi - lo + 1;
+        return n;
+    }
+    
+    /**
+     * Does the set contain point p?
+     * 
+     * @param p the point to look for
+     * @return {@code true} if the set contains point p;
+     *         {@code false} otherwise
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public boolean contains(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called contains() with a null Point2D");
+        if (root == null) return false;
+        double x = p.x();
+        double y = p.y();
+        Node n = root;
+        while (!n.isLeaf()) {
+            n = (n.vertical ? x : y) < n.split ? n.lb : n.rt;
+        }
+        for (int i = 0; i < n.size; i++) {
+            if (n.xs[i] == x && n.ys[i] == y) return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Draw all points and partition lines to standard draw.
+     */
+    public void draw() {
+        draw(root, 0, 0, 1, 1);
+    }
+    
+    private void draw(Node n, double xmin, double ymin, double xmax,
+            double ymax) {
+        if (n == null) return;
+        
+        // Draw the bucket's points
+        if (n.isLeaf()) {
+            StdDraw.setPenColor(StdDraw.BLACK);
+            StdDraw.setPenRadius(0.01);
+            for (int i = 0; i < n.size; i++) StdDraw.point(n.xs[i], n.ys[i]);
+            return;
+        }
+        
+        // Draw the partition line, and traverse both sides of it
+        StdDraw.setPenRadius();
+        if (n.vertical) {
+            StdDraw.setPenColor(StdDraw.RED);
+            StdDraw.line(n.split, ymin, n.split, ymax);
+            draw(n.lb, xmin, ymin, n.split, ymax);
+            draw(n.rt, n.split, ymin, xmax, ymax);
+        }
+        else {
+            StdDraw.setPenColor(StdDraw.BLUE);
+            StdDraw.line(xmin, n.split, xmax, n.split);
+            draw(n.lb, xmin, ymin, xmax, n.split);
+            draw(n.rt, xmin, n.split, xmax, ymax);
+        }
+    }
+    
+    /**
+     * All points that are inside the rectangle.
+     * 
+     * Only the sides of each partition line which the given RectHV reaches
+     * are searched, and each bucket reached is scanned in full.
+     * 
+     * @param rect the RectHV within which to look for points
+     * @return an iterator to all of the points within the given RectHV
+     * @throws NullPointerException if {@code rect} is {@code null}
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new java.lang.NullPointerException(
+                "called range() with a null RectHV");
+        Stack<Point2D> points = new Stack<>();
+        if (root != null) {
+            range(root, rect.xmin(), rect.ymin(), rect.xmax(), rect.ymax(),
+                    points);
+        }
+        return points;
+    }
+    
+    private static void range(Node n, double xmin, double ymin, double xmax,
+            double ymax, Stack<Point2D> points) {
+        if (n.isLeaf()) {
+            double[] xs = n.xs;
+            double[] ys = n.ys;
+            for (int i = 0; i < n.size; i++) {
+                double x = xs[i];
+                double y = ys[i];
+                if (x >= xmin && x <= xmax && y >= ymin && y <= ymax) {
+                    points.push(new Point2D(x, y));
+                }
+            }
+            return;
+        }
+        
+        // The left/bottom side lies strictly below the split
+        double min = n.vertical ? xmin : ymin;
+        double max = n.vertical ? xmax : ymax;
+        if (min < n.split) range(n.lb, xmin, ymin, xmax, ymax, points);
+        if (max >= n.split) range(n.rt, xmin, ymin, xmax, ymax, points);
+    }
+    
+    /**
+     * A nearest neighbor in the set to point p; null if the set is empty.
+     * 
+     * @param p the point from which to search for a neighbor
+     * @return the nearest neighbor to the given point p,
+     *         {@code null} otherwise.
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called nearest() with a null Point2D");
+        if (root == null) return null;
+        Search search = new Search(p.x(), p.y());
+        nearest(root, search);
+        return new Point2D(search.championX, search.championY);
+    }
+    
+    private static void nearest(Node n, Search search) {
+        if (n.isLeaf()) {
+            double[] xs = n.xs;
+            double[] ys = n.ys;
+            for (int i = 0; i < n.size; i++) {
+                double dx = xs[i] - search.x;
+                double dy = ys[i] - search.y;
+                double d = dx * dx + dy * dy;
+                if (d < search.championDistance) {
+                    search.championDistance = d;
+                    search.championX = xs[i];
+                    search.championY = ys[i];
+                }
+            }
+            return;
+        }
+        
+        // Traverse the side of the partition line containing the query
+        // point first, then the far side only if it might hold a closer one
+        double toPartitionLine = (n.vertical ? search.x : search.y) - n.split;
+        Node near = toPartitionLine < 0 ? n.lb : n.rt;
+        Node far = toPartitionLine < 0 ? n.rt : n.lb;
+        nearest(near, search);
+        if (toPartitionLine * toPartitionLine < search.championDistance) {
+            nearest(far, search);
+        }
+    }
+    
+    /**
+     * The state of a single nearest() search.
+     */
+    private static class Search {
+        private final double x;
+        private final double y;
+        private double championX;
+        private double championY;
+        private double championDistance = Double.POSITIVE_INFINITY;
+        
+        private Search(double x, double y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+    
+    /**
+     * The data structure from which a BucketKdTree is created.
+     * 
+     * A Node is either a bucket, whose points are in xs and ys, or a split,
+     * whose points are in lb and rt.
+     */
+    private static class Node {
+        
+        // a bucket's points, or null for a split
+        private double[] xs;
+        private double[] ys;
+        
+        // the axis and coordinate at which a split partitions space
+        private boolean vertical;
+        private double split;
+        
+        // the points below/above a split
+        private Node lb;
+        private Node rt;
+        
+        // the number of points in this subtree
+        private int size;
+        
+        private Node(double[] xs, double[] ys) {
+            this.xs = xs;
+            this.ys = ys;
+        }
+        
+        private boolean isLeaf() {
+            return xs != null;
+        }
+        
+        private void add(double x, double y) {
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+        
+        // take on the contents of n, so that parents needn't be relinked
+        private void become(Node n) {
+            xs = n.xs;
+            ys = n.ys;
+            vertical = n.vertical;
+            split = n.split;
+            lb = n.lb;
+            rt = n.rt;
+            size = n.size;
+        }
+    }
+    
+    /**
+     * Unit testing of the methods (optional).
+     * @param args
+     */
+    public static void main(String[] args) {
+        BucketKdTree bucket = new BucketKdTree(4);
+        for (int i = 0; i < 10; i++) bucket.insert(new Point2D(0.5, i / 10.0));
+        StdOut.println(bucket.size() + " " + bucket.height());
+        StdOut.println(bucket.nearest(new Point2D(0.9, 0.31)));
+    }
+}
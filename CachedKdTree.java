@@ -0,0 +1,421 @@
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.Stack;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * This mutable data type represents a set of points in the "Unit Square",
+ * as a KdTree behind a bounded cache of range() and nearest() results.
+ * 
+ * Queries are cached by their position on a grid of cells, each quantum
+ * wide, so that queries which differ only slightly share an entry:
+ * 
+ * range() snaps the query rectangle outward to the grid, searches the
+ * KdTree for the snapped rectangle, and caches the points found under it.
+ * Any later query which snaps to the same cells is answered by filtering
+ * those points against its own rectangle.
+ * 
+ * nearest() caches, under the cell holding the query point, every point
+ * within R of the cell's center c, where R is the distance from c to its
+ * own nearest neighbor, plus the length of the cell's diagonal.  Any query
+ * point p within the cell has a nearest neighbor among those candidates,
+ * which are scanned instead of the KdTree.  (A hit is only trusted where
+ * the candidate found is provably the nearest, namely where its distance
+ * to p, plus that from p to c, is at most R; otherwise the KdTree is
+ * searched after all.)
+ * 
+ * The cache holds at most capacity entries, and evicts the least recently
+ * used one to make room.  insert() and remove() drop only the entries whose
+ * region (the snapped rectangle for range(), or the circle of radius R
+ * around c for nearest()) holds the point, and which could therefore have
+ * changed; every other entry stays valid.  Finding those entries takes
+ * time proportional to the number of entries.
+ * 
+ * Hits, misses, evictions and invalidations are counted, so that the
+ * quantum and capacity can be tuned.
+ * 
+ * Like KdTree, this is not thread-safe.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class CachedKdTree {
+    private final KdTree kdtree;
+    private final double quantum;
+    private final LinkedHashMap<Key, Entry> cache;
+    
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    
+    /**
+     * Construct an empty set of points, behind a cache of the given
+     * capacity.
+     * 
+     * @param quantum the width of the grid cells to which queries are
+     *        snapped
+     * @param capacity the greatest number of query results to cache
+     * @throws IllegalArgumentException if {@code quantum} is not positive
+     *         and finite, or {@code capacity} is not positive
+     */
+    public CachedKdTree(double quantum, int capacity) {
+        if (!(quantum > 0) || Double.isInfinite(quantum)) {
+            throw new java.lang.IllegalArgumentException(
+                    "called CachedKdTree() with a non-positive quantum");
+        }
+        if (capacity <= 0) throw new java.lang.IllegalArgumentException(
+                "called CachedKdTree() with a non-positive capacity");
+        this.kdtree = new KdTree();
+        this.quantum = quantum;
+        final int maxEntries = capacity;
+        this.cache = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> e) {
+                if (size() <= maxEntries) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+    
+    /**
+     * Is the set empty?
+     * 
+     * @return {@code true} if this set is empty;
+     *         {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return kdtree.isEmpty();
+    }
+    
+    /**
+     * @return the number of points in the set.
+     */
+    public int size() {
+        return kdtree.size();
+    }
+    
+    /**
+     * Add the point to the set (if it is not already in the set), dropping
+     * the cached results which it may change.
+     * 
+     * @param p the point to add
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public void insert(Point2D p) {
+        int size = kdtree.size();
+        kdtree.insert(p);
+        if (kdtree.size() != size) invalidate(p);
+    }
+    
+    /**
+     * Remove the point from the set (if it is in the set), dropping the
+     * cached results which it may change.
+     * 
+     * @param p the point to remove
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public void remove(Point2D p) {
+        int size = kdtree.size();
+        kdtree.remove(p);
+        if (kdtree.size() != size) invalidate(p);
+    }
+    
+    // drop every entry whose region holds p
+    private void invalidate(Point2D p) {
+        Iterator<Entry> entries = cache.values().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().covers(p)) {
+                entries.remove();
+                invalidations++;
+            }
+        }
+    }
+    
+    /**
+     * Does the set contain point p?
+     * 
+     * This is not cached, since KdTree answers it in ~O(log n) anyway.
+     * 
+     * @param p the point to look for
+     * @return {@code true} if the set contains point p;
+     *         {@code false} otherwise
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public boolean contains(Point2D p) {
+        return kdtree.contains(p);
+    }
+    
+    /**
+     * All points that are inside the rectangle.
+     * 
+     * @param rect the RectHV within which to look for points
+     * @return an iterator to all of the points within the given RectHV
+     * @throws NullPointerException if {@code rect} is {@code null}
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new java.lang.NullPointerException(
+                "called range() with a null RectHV");
+        
+        // Snap outward, making sure that rounding never snaps inward
+        long xmin = (long) Math.floor(rect.xmin() / quantum);
+        long ymin = (long) Math.floor(rect.ymin() / quantum);
+        long xmax = (long) Math.ceil(rect.xmax() / quantum);
+        long ymax = (long) Math.ceil(rect.ymax() / quantum);
+        while (xmin * quantum > rect.xmin()) xmin--;
+        while (ymin * quantum > rect.ymin()) ymin--;
+        while (xmax * quantum < rect.xmax()) xmax++;
+        while (ymax * quantum < rect.ymax()) ymax++;
+        Key key = new Key(false, xmin, ymin, xmax, ymax);
+        
+        Entry entry = cache.get(key);
+        if (entry != null) hits++;
+        else {
+            misses++;
+            RectHV region = new RectHV(xmin * quantum, ymin * quantum,
+                    xmax * quantum, ymax * quantum);
+            entry = new Entry(region, PointArrays.toArray(kdtree.range(region),
+                    "range()"));
+            cache.put(key, entry);
+        }
+        
+        Stack<Point2D> points = new Stack<>();
+        for (Point2D p: entry.points) {
+            if (rect.contains(p)) points.push(p);
+        }
+        return points;
+    }
+    
+    /**
+     * A nearest neighbor in the set to point p; null if the set is empty.
+     * 
+     * @param p the point from which to search for a neighbor
+     * @return the nearest neighbor to the given point p,
+     *         {@code null} otherwise.
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called nearest() with a null Point2D");
+        if (kdtree.isEmpty()) return null;
+        long x = (long) Math.floor(p.x() / quantum);
+        long y = (long) Math.floor(p.y() / quantum);
+        Key key = new Key(true, x, y, x, y);
+        
+        Entry entry = cache.get(key);
+        if (entry != null) {
+            Point2D champion = null;
+            double best = Double.POSITIVE_INFINITY;
+            for (Point2D q: entry.points) {
+                double d = q.distanceSquaredTo(p);
+                if (d < best) {
+                    champion = q;
+                    best = d;
+                }
+            }
+            if (Math.sqrt(best) + entry.center.distanceTo(p)
+                    <= entry.radius) {
+                hits++;
+                return champion;
+            }
+            misses++;
+            return kdtree.nearest(p);
+        }
+        
+        misses++;
+        Point2D center = new Point2D((x + 0.5) * quantum,
+                (y + 0.5) * quantum);
+        double radius = center.distanceTo(kdtree.nearest(center))
+                + quantum * Math.sqrt(2);
+        cache.put(key, new Entry(center, radius,
+                PointArrays.toArray(kdtree.range(center, radius),
+                        "nearest()")));
+        return kdtree.nearest(p);
+    }
+    
+    /**
+     * @return the number of queries answered from the cache
+     */
+    public long hits() {
+        return hits;
+    }
+    
+    /**
+     * @return the number of queries which had to search the KdTree
+     */
+    public long misses() {
+        return misses;
+    }
+    
+    /**
+     * @return the fraction of queries answered from the cache, or 0 if
+     *         there have been none
+     */
+    public double hitRate() {
+        long queries = hits + misses;
+        if (queries == 0) return 0;
+        return (double) hits / queries;
+    }
+    
+    /**
+     * @return the number of entries dropped to make room for others
+     */
+    public long evictions() {
+        return evictions;
+    }
+    
+    /**
+     * @return the number of entries dropped by insert() or remove()
+     */
+    public long invalidations() {
+        return invalidations;
+    }
+    
+    @Override
+    public String toString() {
+        return "hits=" + hits + " misses=" + misses
+                + String.format(" hitRate=%.2f", hitRate())
+                + " evictions=" + evictions
+                + " invalidations=" + invalidations;
+    }
+    
+    /**
+     * The grid cells to which a query was snapped, and whether it was for
+     * range() or nearest().
+     */
+    private static class Key {
+        private final boolean nearest;
+        private final long xmin;
+        private final long ymin;
+        private final long xmax;
+        private final long ymax;
+        
+        private Key(boolean nearest, long xmin, long ymin, long xmax,
+                long ymax) {
+            this.nearest = nearest;
+            this.xmin = xmin;
+            this.ymin = ymin;
+            this.xmax = xmax;
+            this.ymax = ymax;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (other == this) return true;
+            if (!(other instanceof Key)) return false;
+            Key that = (Key) other;
+            return this.nearest == that.nearest
+                    && this.xmin == that.xmin && this.ymin == that.ymin
+                    && this.xmax == that.xmax && this.ymax == that.ymax;
+        }
+        
+        @Override
+        public int hashCode() {
+            long h = nearest ? 1 : 0;
+            h = 31 * h + xmin;
+            h = 31 * h + ymin;
+            h = 31 * h + xmax;
+            h = 31 * h + ymax;
+            return Long.hashCode(h);
+        }
+    }
+    
+    /**
+     * A cached result: the points within a region, which is either a
+     * rectangle, for range(), or a circle, for nearest().
+     */
+    private static class Entry {
+        private final RectHV region;
+        private final Point2D center;
+        private final double radius;
+        private final Point2D[] points;
+        
+        private Entry(RectHV region, Point2D[] points) {
+            this.region = region;
+            this.center = null;
+            this.radius = 0;
+            this.points = points;
+        }
+        
+        private Entry(Point2D center, double radius, Point2D[] points) {
+            this.region = null;
+            this.center = center;
+            this.radius = radius;
+            this.points = points;
+        }
+        
+        // could adding or removing p change this result?
+        private boolean covers(Point2D p) {
+            if (region != null) return region.contains(p);
+            return center.distanceSquaredTo(p) <= radius * radius;
+        }
+    }
+    
+    /**
+     * Unit testing of the methods (optional).
+     * 
+     * Pans a small viewport about the unit square, inserting a point now
+     * and then, and checks every cached answer against the KdTree's own.
+     * 
+     * @param args
+     */
+    public static void main(String[] args) {
+        CachedKdTree cached = new CachedKdTree(0.01, 1024);
+        for (int i = 0; i < 10000; i++) {
+            cached.insert(new Point2D(StdRandom.uniform(),
+                    StdRandom.uniform()));
+        }
+        
+        int failures = 0;
+        double x = 0.5;
+        double y = 0.5;
+        for (int i = 0; i < 100000; i++) {
+            x = Math.min(0.9, Math.max(0, x + StdRandom.uniform(-0.002,
+                    0.002)));
+            y = Math.min(0.9, Math.max(0, y + StdRandom.uniform(-0.002,
+                    0.002)));
+            if (i % 100 == 0) {
+                cached.insert(new Point2D(StdRandom.uniform(),
+                        StdRandom.uniform()));
+            }
+            
+            RectHV viewport = new RectHV(x, y, x + 0.1, y + 0.1);
+            int count = 0;
+            for (Point2D p: cached.range(viewport)) count++;
+            if (count != cached.kdtree.rangeCount(viewport)) failures++;
+            
+            Point2D center = new Point2D(x + 0.05, y + 0.05);
+            if (cached.nearest(center).distanceSquaredTo(center)
+                    != cached.kdtree.nearest(center)
+                    .distanceSquaredTo(center)) {
+                failures++;
+            }
+        }
+        StdOut.println(cached);
+        StdOut.println(failures + " failures");
+    }
+}
@@ -0,0 +1,234 @@
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * This thread-safe, mutable data type represents a set of points in the
+ * "Unit Square".
+ * 
+ * Its state is a PersistentKdTree, whose versions never change once made.
+ * insert() derives a new version from the current one, copying only the
+ * path from the root down to the new Node, and then publishes it through a
+ * volatile field.
+ * 
+ * Hence contains(), range() and nearest() never lock: each reads the
+ * current version once and then searches it, so that it sees exactly the
+ * points inserted before that read.  This makes contains() linearizable,
+ * and range() and nearest() answer for a single point in time.  A caller
+ * which needs several queries to agree, such as a long-running scan, takes
+ * a snapshot() and queries it instead; later inserts never reach it, and
+ * it is reclaimed once the caller lets go of it.
+ * 
+ * Inserts are serialized with one another by a lock, and each allocates
+ * O(log n) new Nodes.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class ConcurrentKdTree {
+    
+    private volatile PersistentKdTree current;
+    
+    // guards insert(), so that only one new version is published at a time
+    private final Object writeLock = new Object();
+    
+    /**
+     * Construct an empty set of points.
+     */
+    public ConcurrentKdTree() {
+        current = PersistentKdTree.empty();
+    }
+    
+    /**
+     * Is the set empty?
+     * 
+     * @return {@code true} if this set is empty;
+     *         {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return current.isEmpty();
+    }
+    
+    /**
+     * @return the number of points in the set.
+     */
+    public int size() {
+        return current.size();
+    }
+    
+    /**
+     * Add the point to the set (if it is not already in the set).
+     * 
+     * Readers running alongside continue to search the previous version of
+     * the tree until the new one is published.
+     * 
+     * @param p the point to add
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public void insert(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called insert() with a null Point2D");
+        synchronized (writeLock) {
+            current = current.insert(p);
+        }
+    }
+    
+    /**
+     * An immutable view of the set as it is now, in constant time.
+     * 
+     * @return the current version of the set, which later inserts leave
+     *         unchanged
+     */
+    public PersistentKdTree snapshot() {
+        return current;
+    }
+    
+    /**
+     * Does the set contain point p?
+     * 
+     * @param p the point to look for
+     * @return {@code true} if the set contains point p;
+     *         {@code false} otherwise
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public boolean contains(Point2D p) {
+        return current.contains(p);
+    }
+    
+    /**
+     * Draw all points and partition lines to standard draw.
+     */
+    public void draw() {
+        current.draw();
+    }
+    
+    /**
+     * All points that are inside the rectangle.
+     * 
+     * @param rect the RectHV within which to look for points
+     * @return an iterator to all of the points within the given RectHV
+     * @throws NullPointerException if {@code rect} is {@code null}
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        return current.range(rect);
+    }
+    
+    /**
+     * A nearest neighbor in the set to point p; null if the set is empty.
+     * 
+     * @param p the point from which to search for a neighbor
+     * @return the nearest neighbor to the given point p,
+     *         {@code null} otherwise.
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public Point2D nearest(Point2D p) {
+        return current.nearest(p);
+    }
+    
+    /**
+     * Unit testing of the methods (optional).
+     * 
+     * Hammers one tree with a writer thread inserting points while reader
+     * threads check that every point whose insert() has returned is found
+     * by contains(), range() and nearest().
+     * 
+     * @param args the number of points to insert, and the number of readers
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int readers = args.length > 1 ? Integer.parseInt(args[1])
+                : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        
+        final Point2D[] points = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+        }
+        
+        final ConcurrentKdTree kdtree = new ConcurrentKdTree();
+        final AtomicInteger published = new AtomicInteger();
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicLong queries = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final CountDownLatch finished = new CountDownLatch(readers);
+        
+        for (int r = 0; r < readers; r++) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    java.util.Random random = new java.util.Random();
+                    while (!done.get()) {
+                        int count = published.get();
+                        if (count == 0) continue;
+                        Point2D p = points[random.nextInt(count)];
+                        PersistentKdTree snapshot = kdtree.snapshot();
+                        int snapshotSize = snapshot.size();
+                        
+                        // An inserted point must be found by every query
+                        boolean found = kdtree.contains(p);
+                        found &= p.equals(kdtree.nearest(p));
+                        boolean inRange = false;
+                        for (Point2D q: kdtree.range(new RectHV(p.x(), p.y(),
+                                p.x(), p.y()))) {
+                            inRange |= q.equals(p);
+                        }
+                        if (!found || !inRange) failures.incrementAndGet();
+                        
+                        // Sizes may only grow
+                        if (kdtree.size() < count) failures.incrementAndGet();
+                        
+                        // A snapshot must not change under later inserts
+                        if (snapshotSize < count || !snapshot.contains(p)
+                                || snapshot.size() != snapshotSize) {
+                            failures.incrementAndGet();
+                        }
+                        
+                        queries.incrementAndGet();
+                    }
+                    finished.countDown();
+                }
+            });
+            reader.start();
+        }
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            kdtree.insert(points[i]);
+            published.set(i + 1);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        done.set(true);
+        finished.await();
+        
+        int distinct = new java.util.HashSet<>(java.util.Arrays.asList(points))
+                .size();
+        if (kdtree.size() != distinct) failures.incrementAndGet();
+        
+        StdOut.printf("%d inserts in %.2f s alongside %d readers%n",
+                n, seconds, readers);
+        StdOut.printf("%d queries, %d failures%n",
+                queries.get(), failures.get());
+        if (failures.get() > 0) System.exit(1);
+    }
+}
@@ -0,0 +1,211 @@
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.StdDraw;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * This immutable data type represents a set of points in the "Unit Square".
+ * 
+ * Like KdTree, its representation is a balanced 2d-tree, but there are no
+ * Node, Point2D, or RectHV objects behind it.  Instead, the coordinates are
+ * stored in two parallel double[] arrays, laid out implicitly as described
+ * in ImplicitKdTree, which searches them.
+ * 
+ * The topology is therefore implicit in the indices, and each cell's
+ * rectangle is computed on the fly during descent rather than stored.
+ * This brings the cost of each point down to the 16 bytes of its two
+ * coordinates, and keeps neighbouring subtrees in neighbouring memory.
+ * 
+ * Since the tree is built by median partitioning, its height is always
+ * proportional to log n, so contains() takes logarithmic time, and range()
+ * and nearest() take logarithmic time in the best case.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class FlatKdTree extends ImplicitKdTree {
+    private final double[] xs;
+    private final double[] ys;
+    
+    /**
+     * Construct the set of the given points.
+     * 
+     * Duplicate points are silently dropped.
+     * 
+     * @param points the points to add
+     * @throws NullPointerException if {@code points} is {@code null},
+     *         or if any of its points is {@code null}
+     */
+    public FlatKdTree(Point2D[] points) {
+        this(coordinates(points, true), coordinates(points, false));
+    }
+    
+    private static double[] coordinates(Point2D[] points, boolean x) {
+        if (points == null) throw new java.lang.NullPointerException(
+                "called FlatKdTree() with a null Point2D[]");
+        double[] a = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            if (points[i] == null) throw new java.lang.NullPointerException(
+                    "called FlatKdTree() with a null Point2D");
+            a[i] = x ? points[i].x() : points[i].y();
+        }
+        return a;
+    }
+    
+    /**
+     * Construct the set of the points given by the parallel arrays x and y,
+     * taking ownership of both arrays rather than copying them.
+     * 
+     * Duplicate points are silently dropped.
+     */
+    FlatKdTree(double[] x, double[] y) {
+        int n = dedupe(x, y);
+        
+        // Trim to the distinct points, so that no slack is retained
+        if (n < x.length) {
+            xs = java.util.Arrays.copyOf(x, n);
+            ys = java.util.Arrays.copyOf(y, n);
+        }
+        else {
+            xs = x;
+            ys = y;
+        }
+        build(0, n - 1, true);
+    }
+    
+    /**
+     * Construct the set of the given points.
+     * 
+     * @param points the points to add
+     * @throws NullPointerException if {@code points} is {@code null},
+     *         or if any of its points is {@code null}
+     */
+    public FlatKdTree(Iterable<Point2D> points) {
+        this(PointArrays.toArray(points, "FlatKdTree()"));
+    }
+    
+    @Override
+    public int size() {
+        return xs.length;
+    }
+    
+    @Override
+    double x(int i) {
+        return xs[i];
+    }
+    
+    @Override
+    double y(int i) {
+        return ys[i];
+    }
+    
+    @Override
+    void exch(int i, int j) {
+        PointArrays.exch(xs, ys, i, j);
+    }
+    
+    /**
+     * Draw all points and partition lines to standard draw.
+     */
+    public void draw() {
+        draw(0, xs.length - 1, true, 0, 0, 1, 1);
+    }
+    
+    private void draw(int lo, int hi, boolean evenLevel,
+            double xmin, double ymin, double xmax, double ymax) {
+        if (hi < lo) return;
+        int mid = (lo + hi) >>> 1;
+        
+        // Draw the current point
+        StdDraw.setPenColor(StdDraw.BLACK);
+        StdDraw.setPenRadius(0.01);
+        StdDraw.point(xs[mid], ys[mid]);
+        
+        // Draw the partition line, and traverse both sides of it
+        StdDraw.setPenRadius();
+        if (evenLevel) {
+            StdDraw.setPenColor(StdDraw.RED);
+            StdDraw.line(xs[mid], ymin, xs[mid], ymax);
+            draw(lo, mid - 1, false, xmin, ymin, xs[mid], ymax);
+            draw(mid + 1, hi, false, xs[mid], ymin, xmax, ymax);
+        }
+        else {
+            StdDraw.setPenColor(StdDraw.BLUE);
+            StdDraw.line(xmin, ys[mid], xmax, ys[mid]);
+            draw(lo, mid - 1, true, xmin, ymin, xmax, ys[mid]);
+            draw(mid + 1, hi, true, xmin, ys[mid], xmax, ymax);
+        }
+    }
+    
+    /**
+     * Sort the points given by x and y, move the distinct points to the
+     * front, and shuffle them to guard against quadratic selection.
+     * 
+     * @return the number of distinct points
+     */
+    private static int dedupe(double[] x, double[] y) {
+        sort(x, y, 0, x.length - 1);
+        int n = 0;
+        for (int i = 0; i < x.length; i++) {
+            if (n == 0 || x[i] != x[n - 1] || y[i] != y[n - 1]) {
+                x[n] = x[i];
+                y[n] = y[i];
+                n++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            PointArrays.exch(x, y, i, i + StdRandom.uniform(n - i));
+        }
+        return n;
+    }
+    
+    /**
+     * algs4.Quick3way.sort() over the points given by x and y, ordered by
+     * x-coordinate and then by y-coordinate.
+     */
+    private static void sort(double[] x, double[] y, int lo, int hi) {
+        if (hi <= lo) return;
+        PointArrays.exch(x, y, lo, lo + StdRandom.uniform(hi - lo + 1));
+        int lt = lo;
+        int gt = hi;
+        int i = lo + 1;
+        double vx = x[lo];
+        double vy = y[lo];
+        while (i <= gt) {
+            int cmp = x[i] < vx ? -1 : x[i] > vx ? 1
+                    : Double.compare(y[i], vy);
+            if      (cmp < 0) PointArrays.exch(x, y, lt++, i++);
+            else if (cmp > 0) PointArrays.exch(x, y, i, gt--);
+            else              i++;
+        }
+        sort(x, y, lo, lt - 1);
+        sort(x, y, gt + 1, hi);
+    }
+    
+    /**
+     * Unit testing of the methods (optional).
+     * @param args
+     */
+    public static void main(String[] args) {
+        Point2D p = new Point2D(0.2, 0.3);
+        FlatKdTree flat = new FlatKdTree(new Point2D[] {p});
+        StdOut.println(flat.contains(p));
+    }
+}
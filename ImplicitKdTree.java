@@ -0,0 +1,249 @@
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.Stack;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A balanced 2d-tree laid out implicitly, such that the root of the subtree
+ * spanning indices [lo, hi] sits at index mid = (lo + hi) / 2, its
+ * left/bottom subtree spans [lo, mid - 1], and its right/top subtree spans
+ * [mid + 1, hi].
+ * 
+ * This class holds the searches and the layout of such a tree, in terms of
+ * x(i) and y(i), the coordinates of the point at index i, which each
+ * subclass reads from wherever it keeps them: FlatKdTree from double[]
+ * arrays on the heap, MappedKdTree from a memory-mapped file.  Hence the
+ * two can never disagree about where a point belongs.
+ * 
+ * Points which tie the median on a level's axis may land on either side of
+ * it, so contains() searches both sides on an exact tie, and range() and
+ * nearest() search both sides of a partition line they touch.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+abstract class ImplicitKdTree {
+    
+    /**
+     * @return the number of points in the set.
+     */
+    public abstract int size();
+    
+    // return the x-coordinate of the point at index i, in implicit tree order
+    abstract double x(int i);
+    
+    // return the y-coordinate of the point at index i, in implicit tree order
+    abstract double y(int i);
+    
+    // swap the points at indices i and j, while the tree is being laid out
+    abstract void exch(int i, int j);
+    
+    /**
+     * Is the set empty?
+     * 
+     * @return {@code true} if this set is empty;
+     *         {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+    
+    /**
+     * Does the set contain point p?
+     * 
+     * @param p the point to look for
+     * @return {@code true} if the set contains point p;
+     *         {@code false} otherwise
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public boolean contains(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called contains() with a null Point2D");
+        return contains(0, size() - 1, p.x(), p.y(), true);
+    }
+    
+    private boolean contains(int lo, int hi, double x, double y,
+            boolean evenLevel) {
+        
+        // Handle reaching the end of the search
+        if (hi < lo) return false;
+        
+        int mid = (lo + hi) >>> 1;
+        double mx = x(mid);
+        double my = y(mid);
+        if (mx == x && my == y) return true;
+        
+        double cmp = evenLevel ? x - mx : y - my;
+        if (cmp < 0) return contains(lo, mid - 1, x, y, !evenLevel);
+        if (cmp > 0) return contains(mid + 1, hi, x, y, !evenLevel);
+        
+        // Ties may have been placed on either side of the median
+        return contains(lo, mid - 1, x, y, !evenLevel)
+                || contains(mid + 1, hi, x, y, !evenLevel);
+    }
+    
+    /**
+     * All points that are inside the rectangle.
+     * 
+     * Only the sides of each partition line which the given RectHV reaches
+     * are searched, so cells which do not intersect it are pruned.
+     * 
+     * @param rect the RectHV within which to look for points
+     * @return an iterator to all of the points within the given RectHV
+     * @throws NullPointerException if {@code rect} is {@code null}
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new java.lang.NullPointerException(
+                "called range() with a null RectHV");
+        Stack<Point2D> points = new Stack<>();
+        range(0, size() - 1, true, rect.xmin(), rect.ymin(),
+                rect.xmax(), rect.ymax(), points);
+        return points;
+    }
+    
+    private void range(int lo, int hi, boolean evenLevel, double xmin,
+            double ymin, double xmax, double ymax, Stack<Point2D> points) {
+        if (hi < lo) return;
+        int mid = (lo + hi) >>> 1;
+        double x = x(mid);
+        double y = y(mid);
+        
+        if (x >= xmin && x <= xmax && y >= ymin && y <= ymax) {
+            points.push(new Point2D(x, y));
+        }
+        
+        /**
+         * Only descend into the sides of the partition line which the
+         * query rectangle reaches.  Since ties may lie on either side,
+         * a query touching the line descends into both.
+         */
+        double split = evenLevel ? x : y;
+        double min = evenLevel ? xmin : ymin;
+        double max = evenLevel ? xmax : ymax;
+        if (min <= split) {
+            range(lo, mid - 1, !evenLevel, xmin, ymin, xmax, ymax, points);
+        }
+        if (max >= split) {
+            range(mid + 1, hi, !evenLevel, xmin, ymin, xmax, ymax, points);
+        }
+    }
+    
+    /**
+     * A nearest neighbor in the set to point p; null if the set is empty.
+     * 
+     * @param p the point from which to search for a neighbor
+     * @return the nearest neighbor to the given point p,
+     *         {@code null} otherwise.
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called nearest() with a null Point2D");
+        if (isEmpty()) return null;
+        int n = size();
+        int champion = nearest(0, n - 1, p.x(), p.y(), (n - 1) >>> 1, true);
+        return new Point2D(x(champion), y(champion));
+    }
+    
+    /**
+     * Return the index of the point closest to (x, y) among the champion and
+     * the points in [lo, hi].
+     */
+    private int nearest(int lo, int hi, double x, double y, int champion,
+            boolean evenLevel) {
+        
+        // Handle reaching the end of the tree
+        if (hi < lo) return champion;
+        
+        int mid = (lo + hi) >>> 1;
+        if (distanceSquared(mid, x, y) < distanceSquared(champion, x, y)) {
+            champion = mid;
+        }
+        
+        /**
+         * As in KdTree.nearest(), search the side of the partition line
+         * containing the query point first, and only search the other side
+         * if the partition line is no farther away than the champion.
+         */
+        double toPartitionLine = evenLevel ? x - x(mid) : y - y(mid);
+        if (toPartitionLine < 0) {
+            champion = nearest(lo, mid - 1, x, y, champion, !evenLevel);
+            if (distanceSquared(champion, x, y) >=
+                    toPartitionLine * toPartitionLine) {
+                champion = nearest(mid + 1, hi, x, y, champion, !evenLevel);
+            }
+        }
+        else {
+            champion = nearest(mid + 1, hi, x, y, champion, !evenLevel);
+            if (distanceSquared(champion, x, y) >=
+                    toPartitionLine * toPartitionLine) {
+                champion = nearest(lo, mid - 1, x, y, champion, !evenLevel);
+            }
+        }
+        return champion;
+    }
+    
+    private double distanceSquared(int i, double x, double y) {
+        double dx = x(i) - x;
+        double dy = y(i) - y;
+        return dx * dx + dy * dy;
+    }
+    
+    /**
+     * Lay out the points at indices [lo, hi] in implicit tree order, by
+     * selecting the median along this level's axis into the middle index
+     * and then recursing on either side of it.
+     * 
+     * The points should be in random order, to guard against quadratic
+     * selection.
+     */
+    void build(int lo, int hi, boolean evenLevel) {
+        if (hi <= lo) return;
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi, mid, evenLevel);
+        build(lo, mid - 1, !evenLevel);
+        build(mid + 1, hi, !evenLevel);
+    }
+    
+    /**
+     * algs4.Quick.select() over the points at indices [lo, hi], by their
+     * coordinates along this level's axis.
+     */
+    private void select(int lo, int hi, int k, boolean evenLevel) {
+        while (hi > lo) {
+            int i = lo;
+            int j = hi + 1;
+            double v = key(lo, evenLevel);
+            while (true) {
+                while (key(++i, evenLevel) < v) if (i == hi) break;
+                while (v < key(--j, evenLevel)) if (j == lo) break;
+                if (i >= j) break;
+                exch(i, j);
+            }
+            exch(lo, j);
+            if      (j > k) hi = j - 1;
+            else if (j < k) lo = j + 1;
+            else return;
+        }
+    }
+    
+    private double key(int i, boolean evenLevel) {
+        return evenLevel ? x(i) : y(i);
+    }
+}
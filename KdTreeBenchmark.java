@@ -0,0 +1,451 @@
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import java.lang.management.ManagementFactory;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Compares the throughput of KdTree against the PointSET brute-force
+ * baseline, for insert(), contains(), range() and nearest().
+ * 
+ * Each measurement is taken over four distributions of points:
+ *   uniform    points drawn uniformly from the unit square
+ *   clustered  points drawn from a handful of tight Gaussian clusters
+ *   sorted     points arriving in order of increasing x, the insertion
+ *              order which degrades an unbalanced BST into a linked list
+ *   grid       points snapped to a coarse grid, so that about half of
+ *              them are duplicates, and many share a partition line
+ * 
+ * nearest() is measured both depth-first and best-first (nearestBestFirst()),
+ * for a single neighbor and for eight of them.
+ * 
+ * range() is measured at three selectivities, as the expected fraction
+ * of the unit square covered by each query rectangle.
+ * 
+ * insert() is also measured on StreamingKdTree, whose inserts are buffered
+ * and indexed in the background.
+ * 
+ * range() and nearest() are also measured on a KdTree after compact(), to
+ * compare a tree laid out in van Emde Boas order against one laid out in
+ * order of arrival.  Java cannot count cache misses itself; to see them,
+ * run the benchmark under a hardware profiler, such as Linux perf stat -e
+ * cache-misses, or async-profiler in cache-misses mode.
+ * 
+ * BucketKdTree is measured at each of BUCKET_SIZES, to find the leaf
+ * capacity which suits each distribution best.
+ * 
+ * Each measurement is run once to warm up and once to be reported, for at
+ * most BUDGET_NANOS, and reports operations per second, bytes allocated per
+ * operation (where the JVM can count them), and the height of the KdTree.
+ * 
+ * This is a quick survey, needing nothing but algs4.  With one warm-up, no
+ * forks and no statistics, it is no way to tell whether a change helps or
+ * hurts; for that, run the JMH benchmarks in jmh/, which use the same
+ * datasets and queries, through JmhWorkload.
+ * 
+ * Usage: java KdTreeBenchmark [n ...]
+ * where each n is a number of points, defaulting to 1K, 10K, 100K and 1M.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class KdTreeBenchmark {
+    
+    // how long each measurement may run for
+    private static final long BUDGET_NANOS = 250000000L;
+    
+    // the distributions of points measured
+    private static final String[] DATASETS =
+        {"uniform", "clustered", "sorted", "grid"};
+    
+    // the expected fractions of the unit square covered by range() queries
+    private static final double[] SELECTIVITIES = {0.0001, 0.01, 0.1};
+    
+    // the leaf capacities measured for BucketKdTree
+    private static final int[] BUCKET_SIZES = {8, 16, 32, 64};
+    
+    // the number of distinct queries cycled through by each measurement
+    private static final int QUERIES = 1 << 12;
+    
+    // sink for query results, so that the JIT can't discard the queries
+    private static volatile long blackhole;
+    
+    /**
+     * An operation to be measured, given the number of times it has run.
+     */
+    private interface Operation {
+        void run(int i);
+    }
+    
+    /**
+     * Generate n points from the named distribution.
+     */
+    static Point2D[] dataset(String name, int n) {
+        Point2D[] points = new Point2D[n];
+        if (name.equals("uniform")) {
+            for (int i = 0; i < n; i++) {
+                points[i] = new Point2D(StdRandom.uniform(),
+                        StdRandom.uniform());
+            }
+        }
+        else if (name.equals("clustered")) {
+            int clusters = 16;
+            double[] cx = new double[clusters];
+            double[] cy = new double[clusters];
+            for (int c = 0; c < clusters; c++) {
+                cx[c] = StdRandom.uniform(0.1, 0.9);
+                cy[c] = StdRandom.uniform(0.1, 0.9);
+            }
+            for (int i = 0; i < n; i++) {
+                int c = StdRandom.uniform(clusters);
+                points[i] = new Point2D(clamp(StdRandom.gaussian(cx[c], 0.01)),
+                        clamp(StdRandom.gaussian(cy[c], 0.01)));
+            }
+        }
+        else if (name.equals("sorted")) {
+            for (int i = 0; i < n; i++) {
+                points[i] = new Point2D((double) i / n, StdRandom.uniform());
+            }
+        }
+        else if (name.equals("grid")) {
+            int side = Math.max(1, (int) Math.sqrt(n / 2));
+            for (int i = 0; i < n; i++) {
+                points[i] = new Point2D(
+                        (double) StdRandom.uniform(side + 1) / side,
+                        (double) StdRandom.uniform(side + 1) / side);
+            }
+        }
+        else throw new java.lang.IllegalArgumentException(
+                "unknown dataset: " + name);
+        return points;
+    }
+    
+    private static double clamp(double v) {
+        return Math.min(Math.max(v, 0), 1);
+    }
+    
+    /**
+     * Generate square query rectangles covering, on average, the given
+     * fraction of the unit square.
+     */
+    static RectHV[] rectangles(double selectivity, int n) {
+        double side = Math.sqrt(selectivity);
+        RectHV[] rects = new RectHV[n];
+        for (int i = 0; i < n; i++) {
+            double x = StdRandom.uniform(0, 1 - side);
+            double y = StdRandom.uniform(0, 1 - side);
+            rects[i] = new RectHV(x, y, x + side, y + side);
+        }
+        return rects;
+    }
+    
+    /**
+     * Generate query points, half of them drawn from the dataset and half
+     * of them drawn uniformly from the unit square.
+     */
+    static Point2D[] queries(Point2D[] points, int n) {
+        Point2D[] queries = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            if (i % 2 == 0) {
+                queries[i] = points[StdRandom.uniform(points.length)];
+            }
+            else {
+                queries[i] = new Point2D(StdRandom.uniform(),
+                        StdRandom.uniform());
+            }
+        }
+        return queries;
+    }
+    
+    /**
+     * Run the operation up to maxOps times, or until the budget runs out,
+     * and report its throughput and allocation rate.
+     */
+    static void measure(String dataset, int n, String structure,
+            String operation, int height, int maxOps, Operation op) {
+        
+        // Warm up, then measure
+        run(op, maxOps);
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        int ops = run(op, maxOps);
+        long elapsed = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        
+        StdOut.printf("%-10s %9d %-10s %-16s %14.0f %10s %6s%n",
+                dataset, n, structure, operation, ops * 1e9 / elapsed,
+                bytes < 0 ? "-" : String.valueOf(bytes / ops),
+                height < 0 ? "-" : String.valueOf(height));
+    }
+    
+    private static int run(Operation op, int maxOps) {
+        long deadline = System.nanoTime() + BUDGET_NANOS;
+        int i = 0;
+        while (i < maxOps) {
+            op.run(i++);
+            if ((i & 63) == 0 && System.nanoTime() > deadline) break;
+        }
+        return i;
+    }
+    
+    /**
+     * The number of bytes allocated so far by the current thread, or -1 if
+     * the JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+                ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+    
+    /**
+     * Measure insert(), contains(), range() and nearest() on KdTree,
+     * PointSET, and BucketKdTree for the given points.
+     */
+    static void benchmark(String dataset, final Point2D[] points) {
+        int n = points.length;
+        final Point2D[] queries = queries(points, QUERIES);
+        
+        // insert() is measured as the time to load every point
+        measure(dataset, n, "KdTree", "insert", -1, n, new Operation() {
+            private KdTree kdtree = new KdTree();
+            @Override
+            public void run(int i) {
+                if (i % points.length == 0) kdtree = new KdTree();
+                kdtree.insert(points[i % points.length]);
+            }
+        });
+        measure(dataset, n, "Streaming", "insert", -1, n, new Operation() {
+            private StreamingKdTree streaming = new StreamingKdTree();
+            @Override
+            public void run(int i) {
+                if (i % points.length == 0) streaming = new StreamingKdTree();
+                streaming.insert(points[i % points.length]);
+            }
+        });
+        measure(dataset, n, "PointSET", "insert", -1, n, new Operation() {
+            private PointSET set = new PointSET();
+            @Override
+            public void run(int i) {
+                if (i % points.length == 0) set = new PointSET();
+                set.insert(points[i % points.length]);
+            }
+        });
+        
+        final KdTree kdtree = new KdTree();
+        final PointSET set = new PointSET();
+        for (Point2D p: points) {
+            kdtree.insert(p);
+            set.insert(p);
+        }
+        int height = kdtree.height();
+        
+        measure(dataset, n, "KdTree", "contains", height, Integer.MAX_VALUE,
+                new Operation() {
+                    @Override
+                    public void run(int i) {
+                        if (kdtree.contains(queries[i & (QUERIES - 1)])) {
+                            blackhole++;
+                        }
+                    }
+                });
+        measure(dataset, n, "PointSET", "contains", -1, Integer.MAX_VALUE,
+                new Operation() {
+                    @Override
+                    public void run(int i) {
+                        if (set.contains(queries[i & (QUERIES - 1)])) {
+                            blackhole++;
+                        }
+                    }
+                });
+        
+        for (double selectivity: SELECTIVITIES) {
+            final RectHV[] rects = rectangles(selectivity, QUERIES);
+            String operation = "range " + selectivity;
+            measure(dataset, n, "KdTree", operation, height, Integer.MAX_VALUE,
+                    new Operation() {
+                        @Override
+                        public void run(int i) {
+                            for (Point2D p: kdtree.range(
+                                    rects[i & (QUERIES - 1)])) {
+                                blackhole += p.hashCode();
+                            }
+                        }
+                    });
+            measure(dataset, n, "PointSET", operation, -1, Integer.MAX_VALUE,
+                    new Operation() {
+                        @Override
+                        public void run(int i) {
+                            for (Point2D p: set.range(
+                                    rects[i & (QUERIES - 1)])) {
+                                blackhole += p.hashCode();
+                            }
+                        }
+                    });
+        }
+        
+        measure(dataset, n, "KdTree", "nearest", height, Integer.MAX_VALUE,
+                new Operation() {
+                    @Override
+                    public void run(int i) {
+                        blackhole += kdtree.nearest(
+                                queries[i & (QUERIES - 1)]).hashCode();
+                    }
+                });
+        measure(dataset, n, "KdTree", "best-first", height, Integer.MAX_VALUE,
+                new Operation() {
+                    @Override
+                    public void run(int i) {
+                        blackhole += kdtree.nearestBestFirst(
+                                queries[i & (QUERIES - 1)]).hashCode();
+                    }
+                });
+        measure(dataset, n, "KdTree", "nearest k=8", height, Integer.MAX_VALUE,
+                new Operation() {
+                    @Override
+                    public void run(int i) {
+                        for (Point2D p: kdtree.nearest(
+                                queries[i & (QUERIES - 1)], 8)) {
+                            blackhole += p.hashCode();
+                        }
+                    }
+                });
+        measure(dataset, n, "KdTree", "best-first k=8", height,
+                Integer.MAX_VALUE, new Operation() {
+                    @Override
+                    public void run(int i) {
+                        for (Point2D p: kdtree.nearestBestFirst(
+                                queries[i & (QUERIES - 1)], 8)) {
+                            blackhole += p.hashCode();
+                        }
+                    }
+                });
+        measure(dataset, n, "PointSET", "nearest", -1, Integer.MAX_VALUE,
+                new Operation() {
+                    @Override
+                    public void run(int i) {
+                        blackhole += set.nearest(
+                                queries[i & (QUERIES - 1)]).hashCode();
+                    }
+                });
+        
+        // The same points, laid out by compact() rather than by arrival
+        final KdTree compact = new KdTree();
+        for (Point2D p: points) compact.insert(p);
+        compact.compact();
+        int compactHeight = compact.height();
+        for (double selectivity: SELECTIVITIES) {
+            final RectHV[] rects = rectangles(selectivity, QUERIES);
+            measure(dataset, n, "Compact", "range " + selectivity,
+                    compactHeight, Integer.MAX_VALUE, new Operation() {
+                        @Override
+                        public void run(int i) {
+                            for (Point2D p: compact.range(
+                                    rects[i & (QUERIES - 1)])) {
+                                blackhole += p.hashCode();
+                            }
+                        }
+                    });
+        }
+        measure(dataset, n, "Compact", "nearest", compactHeight,
+                Integer.MAX_VALUE, new Operation() {
+                    @Override
+                    public void run(int i) {
+                        blackhole += compact.nearest(
+                                queries[i & (QUERIES - 1)]).hashCode();
+                    }
+                });
+        
+        for (final int bucketSize: BUCKET_SIZES) {
+            String structure = "Bucket" + bucketSize;
+            measure(dataset, n, structure, "insert", -1, n, new Operation() {
+                private BucketKdTree bucket = new BucketKdTree(bucketSize);
+                @Override
+                public void run(int i) {
+                    if (i % points.length == 0) {
+                        bucket = new BucketKdTree(bucketSize);
+                    }
+                    bucket.insert(points[i % points.length]);
+                }
+            });
+            
+            final BucketKdTree bucket = new BucketKdTree(bucketSize);
+            for (Point2D p: points) bucket.insert(p);
+            int bucketHeight = bucket.height();
+            
+            measure(dataset, n, structure, "contains", bucketHeight,
+                    Integer.MAX_VALUE, new Operation() {
+                        @Override
+                        public void run(int i) {
+                            if (bucket.contains(queries[i & (QUERIES - 1)])) {
+                                blackhole++;
+                            }
+                        }
+                    });
+            for (double selectivity: SELECTIVITIES) {
+                final RectHV[] rects = rectangles(selectivity, QUERIES);
+                measure(dataset, n, structure, "range " + selectivity,
+                        bucketHeight, Integer.MAX_VALUE, new Operation() {
+                            @Override
+                            public void run(int i) {
+                                for (Point2D p: bucket.range(
+                                        rects[i & (QUERIES - 1)])) {
+                                    blackhole += p.hashCode();
+                                }
+                            }
+                        });
+            }
+            measure(dataset, n, structure, "nearest", bucketHeight,
+                    Integer.MAX_VALUE, new Operation() {
+                        @Override
+                        public void run(int i) {
+                            blackhole += bucket.nearest(
+                                    queries[i & (QUERIES - 1)]).hashCode();
+                        }
+                    });
+        }
+    }
+    
+    /**
+     * Run the benchmarks.
+     * @param args the numbers of points to measure
+     */
+    public static void main(String[] args) {
+        int[] sizes = {1000, 10000, 100000, 1000000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        
+        StdOut.printf("%-10s %9s %-10s %-16s %14s %10s %6s%n", "dataset", "n",
+                "structure", "operation", "ops/s", "B/op", "height");
+        for (int n: sizes) {
+            for (String dataset: DATASETS) {
+                benchmark(dataset, dataset(dataset, n));
+            }
+        }
+    }
+}
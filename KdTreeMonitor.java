@@ -0,0 +1,144 @@
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Publishes the shape of a KdTree over JMX, so that monitoring can alert
+ * when it degenerates.
+ * 
+ * Since KdTree is not thread-safe, JMX clients never walk the tree
+ * themselves.  Instead, whichever thread owns the tree calls refresh() as
+ * often as it sees fit, to take a KdTreeStats snapshot, and JMX clients
+ * read the attributes of the last snapshot taken.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class KdTreeMonitor implements KdTreeMonitorMBean {
+    private final KdTree kdtree;
+    private volatile KdTreeStats stats;
+    private volatile long snapshotTime;
+    
+    /**
+     * Monitor the given KdTree, taking a first snapshot of it.
+     * 
+     * @param kdtree the KdTree to monitor
+     * @throws NullPointerException if {@code kdtree} is {@code null}
+     */
+    public KdTreeMonitor(KdTree kdtree) {
+        if (kdtree == null) throw new java.lang.NullPointerException(
+                "called KdTreeMonitor() with a null KdTree");
+        this.kdtree = kdtree;
+        refresh();
+    }
+    
+    /**
+     * Take a new snapshot of the KdTree.
+     * 
+     * This must be called by the thread which modifies the KdTree, or with
+     * modifications otherwise held off.
+     */
+    public void refresh() {
+        stats = kdtree.stats();
+        snapshotTime = System.currentTimeMillis();
+    }
+    
+    /**
+     * @return the last snapshot taken
+     */
+    public KdTreeStats stats() {
+        return stats;
+    }
+    
+    /**
+     * Register this monitor with the platform MBeanServer, under the name
+     * "KdTree:type=KdTreeMonitor,name=" followed by the given name.
+     * 
+     * @param name the name which tells this KdTree apart from others
+     * @return the ObjectName under which this monitor was registered
+     * @throws JMException if the name is malformed or already taken
+     * @throws NullPointerException if {@code name} is {@code null}
+     */
+    public ObjectName register(String name) throws JMException {
+        if (name == null) throw new java.lang.NullPointerException(
+                "called register() with a null String");
+        ObjectName objectName = new ObjectName(
+                "KdTree:type=KdTreeMonitor,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(this, objectName);
+        return objectName;
+    }
+    
+    @Override
+    public int getSize() {
+        return stats.size();
+    }
+    
+    @Override
+    public int getTombstones() {
+        return stats.tombstones();
+    }
+    
+    @Override
+    public int getHeight() {
+        return stats.height();
+    }
+    
+    @Override
+    public double getAverageLeafDepth() {
+        return stats.averageLeafDepth();
+    }
+    
+    @Override
+    public double getImbalanceRatio() {
+        return stats.imbalanceRatio();
+    }
+    
+    @Override
+    public int[] getDepthHistogram() {
+        return stats.depthHistogram();
+    }
+    
+    @Override
+    public long getSnapshotTime() {
+        return snapshotTime;
+    }
+    
+    /**
+     * Unit testing of the methods (optional).
+     * @param args
+     * @throws JMException if the monitor cannot be registered
+     */
+    public static void main(String[] args) throws JMException {
+        KdTree kdtree = new KdTree();
+        for (int i = 0; i < 1000; i++) {
+            kdtree.insert(new Point2D(StdRandom.uniform(),
+                    StdRandom.uniform()));
+        }
+        KdTreeMonitor monitor = new KdTreeMonitor(kdtree);
+        ObjectName name = monitor.register("main");
+        StdOut.println(ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(name, "ImbalanceRatio"));
+        StdOut.println(monitor.stats());
+    }
+}
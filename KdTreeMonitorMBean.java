@@ -0,0 +1,61 @@
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The JMX management interface of KdTreeMonitor, whose attributes are
+ * those of the last KdTreeStats snapshot it took.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public interface KdTreeMonitorMBean {
+    
+    /**
+     * @return the number of points in the set.
+     */
+    int getSize();
+    
+    /**
+     * @return the number of removed points still held as tombstones.
+     */
+    int getTombstones();
+    
+    /**
+     * @return the height of the BST, counting tombstones.
+     */
+    int getHeight();
+    
+    /**
+     * @return the average depth of the BST's leaves.
+     */
+    double getAverageLeafDepth();
+    
+    /**
+     * @return the height of the BST over that of a balanced BST.
+     */
+    double getImbalanceRatio();
+    
+    /**
+     * @return the number of Nodes at each depth.
+     */
+    int[] getDepthHistogram();
+    
+    /**
+     * @return when the snapshot was taken, in milliseconds since the epoch.
+     */
+    long getSnapshotTime();
+}
@@ -0,0 +1,540 @@
+
+import edu.princeton.cs.algs4.Stack;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import java.util.Arrays;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * This mutable data type represents a set of points in k dimensions, within
+ * an axis-aligned bounding box.
+ * 
+ * It generalizes KdTree, which is fixed to two axes and to the unit square.
+ * Each point is a double[] of length k, and each Node records the axis along
+ * which it partitions space, chosen either cyclically (the Node's depth
+ * mod k, as KdTree alternates between x and y) or as the axis along which
+ * the points are most spread out.
+ * 
+ * Rather than store a rectangle in each Node, cell bounds are tracked during
+ * descent, and nearest() prunes using the incremental distance from the
+ * query point to each cell, so that pruning stays effective as k grows.
+ * 
+ * As in KdTree, ties on a Node's axis go to the right subtree, and any
+ * subtree which grows too deep for its size is rebuilt, in the manner of a
+ * scapegoat tree, so the height stays proportional to log n.
+ * 
+ * Under Split.WIDEST, insert() and rebuilds choose axes by different rules.
+ * A Node added by insert() has no points below it to measure, so it splits
+ * its cell along the cell's longest side; build() and scapegoat rebuilds
+ * split along the widest spread of the points being rebuilt.  A rebuild may
+ * therefore change the axes of the Nodes it replaces, and the shape of a
+ * WIDEST tree depends on the order in which its points arrived.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class KdTreeND {
+    
+    // the weight-balance factor which bounds the height of any subtree
+    private static final double ALPHA = 0.75;
+    
+    /**
+     * How the axis along which a Node partitions space is chosen.
+     */
+    public enum Split {
+        
+        /** The Node's depth mod k. */
+        CYCLIC,
+        
+        /**
+         * The axis along which the points are most spread out, when they are
+         * known up front, as in build() and rebuilds; otherwise, in insert(),
+         * the longest side of the new Node's cell.
+         */
+        WIDEST
+    }
+    
+    private final int k;
+    private final double[] min;
+    private final double[] max;
+    private final Split split;
+    private Node root;
+    
+    // the depth of a just-inserted Node which calls for a rebuild, or -1
+    private int scapegoatDepth = -1;
+    
+    /**
+     * Construct an empty set of points in the k-dimensional unit hypercube,
+     * with axes chosen cyclically.
+     * 
+     * @param k the number of dimensions
+     * @throws IllegalArgumentException if {@code k} is not positive
+     */
+    public KdTreeND(int k) {
+        this(filled(k, 0), filled(k, 1), Split.CYCLIC);
+    }
+    
+    /**
+     * Construct an empty set of points within the given bounding box.
+     * 
+     * @param min the least coordinate allowed along each axis
+     * @param max the greatest coordinate allowed along each axis
+     * @param split how each Node's axis is chosen
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code min} and {@code max} are
+     *         empty, differ in length, or do not describe a box
+     */
+    public KdTreeND(double[] min, double[] max, Split split) {
+        if (min == null || max == null) {
+            throw new java.lang.NullPointerException(
+                    "called KdTreeND() with a null bound");
+        }
+        if (split == null) throw new java.lang.NullPointerException(
+                "called KdTreeND() with a null Split");
+        if (min.length == 0 || min.length != max.length) {
+            throw new java.lang.IllegalArgumentException(
+                    "called KdTreeND() with mismatched bounds");
+        }
+        for (int i = 0; i < min.length; i++) {
+            if (!(min[i] <= max[i]) || Double.isInfinite(min[i])
+                    || Double.isInfinite(max[i])) {
+                throw new java.lang.IllegalArgumentException(
+                        "called KdTreeND() with an invalid bound on axis " + i);
+            }
+        }
+        this.k = min.length;
+        this.min = min.clone();
+        this.max = max.clone();
+        this.split = split;
+    }
+    
+    private static double[] filled(int k, double v) {
+        if (k <= 0) throw new java.lang.IllegalArgumentException(
+                "called KdTreeND() with a non-positive k");
+        double[] a = new double[k];
+        Arrays.fill(a, v);
+        return a;
+    }
+    
+    /**
+     * Construct a balanced set of the given points, within the given
+     * bounding box, by median partitioning.
+     * 
+     * Duplicate points are silently dropped.
+     * 
+     * @param points the points to add
+     * @param min the least coordinate allowed along each axis
+     * @param max the greatest coordinate allowed along each axis
+     * @param split how each Node's axis is chosen
+     * @return a KdTreeND containing every distinct point in {@code points}
+     * @throws NullPointerException if any argument is {@code null},
+     *         or if any of the points is {@code null}
+     * @throws IllegalArgumentException if the bounds are invalid, or any
+     *         point has the wrong dimension or lies outside of them
+     */
+    public static KdTreeND build(double[][] points, double[] min,
+            double[] max, Split split) {
+        KdTreeND kdtree = new KdTreeND(min, max, split);
+        if (points == null) throw new java.lang.NullPointerException(
+                "called build() with a null double[][]");
+        
+        double[][] a = new double[points.length][];
+        for (int i = 0; i < points.length; i++) {
+            kdtree.validate(points[i], "build");
+            a[i] = points[i].clone();
+        }
+        
+        // Drop duplicates, which are adjacent once the points are sorted
+        Arrays.sort(a, new java.util.Comparator<double[]>() {
+            @Override
+            public int compare(double[] p, double[] q) {
+                for (int i = 0; i < p.length; i++) {
+                    int cmp = Double.compare(p[i], q[i]);
+                    if (cmp != 0) return cmp;
+                }
+                return 0;
+            }
+        });
+        int n = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (n == 0 || !Arrays.equals(a[i], a[n - 1])) a[n++] = a[i];
+        }
+        a = Arrays.copyOf(a, n);
+        StdRandom.shuffle(a);
+        
+        kdtree.root = kdtree.build(a, 0, n - 1, 0);
+        return kdtree;
+    }
+    
+    /**
+     * @return the number of dimensions of the points in the set.
+     */
+    public int dimension() {
+        return k;
+    }
+    
+    /**
+     * Is the set empty?
+     * 
+     * @return {@code true} if this set is empty;
+     *         {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+    
+    /**
+     * @return the number of points in the set.
+     */
+    public int size() {
+        return size(root);
+    }
+    
+    // return number of points in the subtree rooted at n
+    private static int size(Node n) {
+        if (n == null) return 0;
+        else return n.size;
+    }
+    
+    /**
+     * Check that p is a point of this set's dimension within its bounds.
+     */
+    private void validate(double[] p, String method) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called " + method + "() with a null double[]");
+        if (p.length != k) throw new java.lang.IllegalArgumentException(
+                "called " + method + "() with a point of dimension "
+                + p.length + " rather than " + k);
+        for (int i = 0; i < k; i++) {
+            if (!(p[i] >= min[i] && p[i] <= max[i])) {
+                throw new java.lang.IllegalArgumentException(
+                        "called " + method + "() with a point outside of "
+                        + "the bounds on axis " + i);
+            }
+        }
+    }
+    
+    /**
+     * Add the point to the set (if it is not already in the set).
+     * 
+     * The point is copied, so later changes to the given array do not
+     * affect the set.
+     * 
+     * @param p the point to add
+     * @throws NullPointerException if {@code p} is {@code null}
+     * @throws IllegalArgumentException if {@code p} has the wrong dimension
+     *         or lies outside of the bounds
+     */
+    public void insert(double[] p) {
+        validate(p, "insert");
+        root = insert(root, p, min.clone(), max.clone(), 0);
+    }
+    
+    /**
+     * Add p to the subtree rooted at n, whose cell is bounded by lo and hi.
+     * 
+     * lo and hi are narrowed on the way down, so that they bound the new
+     * Node's cell when it is reached, for axis() to choose its axis from.
+     * Nothing reads them on the way back up, so they are not restored; each
+     * insert() narrows its own copies of the bounds.
+     */
+    private Node insert(Node n, double[] p, double[] lo, double[] hi,
+            int depth) {
+        if (n == null) {
+            if (depth > maxHeight(size(root) + 1)) scapegoatDepth = depth;
+            return new Node(p.clone(), axis(lo, hi, depth));
+        }
+        
+        // Duplicates are silently dropped
+        if (Arrays.equals(n.point, p)) return n;
+        
+        int axis = n.axis;
+        double s = n.point[axis];
+        if (p[axis] < s) {
+            hi[axis] = s;
+            n.lb = insert(n.lb, p, lo, hi, depth + 1);
+        }
+        
+        // Ties are resolved in favor of the right subtree
+        else {
+            lo[axis] = s;
+            n.rt = insert(n.rt, p, lo, hi, depth + 1);
+        }
+        n.size = 1 + size(n.lb) + size(n.rt);
+        
+        // Rebuild the scapegoat, if it's this Node
+        if (scapegoatDepth >= 0
+                && scapegoatDepth - depth > maxHeight(n.size)) {
+            scapegoatDepth = -1;
+            double[][] a = new double[n.size][];
+            collect(n, a, 0);
+            StdRandom.shuffle(a);
+            return build(a, 0, a.length - 1, depth);
+        }
+        return n;
+    }
+    
+    /**
+     * The axis along which a new Node at the given depth, whose cell is
+     * bounded by lo and hi, partitions space: under WIDEST, the cell's
+     * longest side, unlike build(), which measures the points' spread.
+     */
+    private int axis(double[] lo, double[] hi, int depth) {
+        if (split == Split.CYCLIC) return depth % k;
+        int widest = 0;
+        for (int i = 1; i < k; i++) {
+            if (hi[i] - lo[i] > hi[widest] - lo[widest]) widest = i;
+        }
+        return widest;
+    }
+    
+    /**
+     * The greatest height which a subtree of the given size may reach
+     * before it must be rebuilt.
+     */
+    private static int maxHeight(int size) {
+        return (int) (Math.log(size) / Math.log(1 / ALPHA));
+    }
+    
+    // gather the points in the subtree rooted at n into a, from index i
+    private static int collect(Node n, double[][] a, int i) {
+        if (n == null) return i;
+        a[i++] = n.point;
+        i = collect(n.lb, a, i);
+        return collect(n.rt, a, i);
+    }
+    
+    /**
+     * Build a balanced subtree out of a[lo..hi], whose root is at the given
+     * depth, placing ties with the median in the right subtree.
+     */
+    private Node build(double[][] a, int lo, int hi, int depth) {
+        if (hi < lo) return null;
+        
+        int axis = split == Split.CYCLIC ? depth % k : widestSpread(a, lo, hi);
+        int mid = PointArrays.median(a, lo, hi, axis);
+        Node n = new Node(a[mid], axis);
+        n.lb = build(a, lo, mid - 1, depth + 1);
+        n.rt = build(a, mid + 1, hi, depth + 1);
+        n.size = 1 + size(n.lb) + size(n.rt);
+        return n;
+    }
+    
+    /**
+     * The axis along which a[lo..hi] are most spread out.
+     */
+    private int widestSpread(double[][] a, int lo, int hi) {
+        int widest = 0;
+        double widestSpread = -1;
+        for (int axis = 0; axis < k; axis++) {
+            double least = Double.POSITIVE_INFINITY;
+            double most = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i <= hi; i++) {
+                least = Math.min(least, a[i][axis]);
+                most = Math.max(most, a[i][axis]);
+            }
+            if (most - least > widestSpread) {
+                widestSpread = most - least;
+                widest = axis;
+            }
+        }
+        return widest;
+    }
+    
+    /**
+     * Does the set contain point p?
+     * 
+     * @param p the point to look for
+     * @return {@code true} if the set contains point p;
+     *         {@code false} otherwise
+     * @throws NullPointerException if {@code p} is {@code null}
+     * @throws IllegalArgumentException if {@code p} has the wrong dimension
+     */
+    public boolean contains(double[] p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called contains() with a null double[]");
+        if (p.length != k) throw new java.lang.IllegalArgumentException(
+                "called contains() with a point of the wrong dimension");
+        Node n = root;
+        while (n != null) {
+            if (Arrays.equals(n.point, p)) return true;
+            if (p[n.axis] < n.point[n.axis]) n = n.lb;
+            else n = n.rt;
+        }
+        return false;
+    }
+    
+    /**
+     * All points that are inside the axis-aligned box from lo to hi.
+     * 
+     * @param lo the least coordinate along each axis of the box
+     * @param hi the greatest coordinate along each axis of the box
+     * @return an iterator to copies of all of the points within the box
+     * @throws NullPointerException if {@code lo} or {@code hi} is
+     *         {@code null}
+     * @throws IllegalArgumentException if {@code lo} and {@code hi} have
+     *         the wrong dimension, or do not describe a box
+     */
+    public Iterable<double[]> range(double[] lo, double[] hi) {
+        if (lo == null || hi == null) throw new java.lang.NullPointerException(
+                "called range() with a null bound");
+        if (lo.length != k || hi.length != k) {
+            throw new java.lang.IllegalArgumentException(
+                    "called range() with bounds of the wrong dimension");
+        }
+        for (int i = 0; i < k; i++) {
+            if (!(lo[i] <= hi[i])) throw new java.lang.IllegalArgumentException(
+                    "called range() with an invalid bound on axis " + i);
+        }
+        Stack<double[]> points = new Stack<>();
+        range(root, lo, hi, points);
+        return points;
+    }
+    
+    private void range(Node n, double[] lo, double[] hi,
+            Stack<double[]> points) {
+        if (n == null) return;
+        
+        boolean inside = true;
+        for (int i = 0; i < k && inside; i++) {
+            inside = n.point[i] >= lo[i] && n.point[i] <= hi[i];
+        }
+        if (inside) points.push(n.point.clone());
+        
+        // The left subtree lies strictly below the split, the right at or above
+        double s = n.point[n.axis];
+        if (lo[n.axis] < s) range(n.lb, lo, hi, points);
+        if (hi[n.axis] >= s) range(n.rt, lo, hi, points);
+    }
+    
+    /**
+     * A nearest neighbor in the set to point p; null if the set is empty.
+     * 
+     * The squared distance from p to each cell is maintained incrementally:
+     * crossing a partition line only changes p's offset from the cell along
+     * that one axis, so the far side of a line is pruned whenever that
+     * distance is no less than the champion's.
+     * 
+     * @param p the point from which to search for a neighbor
+     * @return a copy of the nearest neighbor to the given point p,
+     *         {@code null} otherwise.
+     * @throws NullPointerException if {@code p} is {@code null}
+     * @throws IllegalArgumentException if {@code p} has the wrong dimension
+     */
+    public double[] nearest(double[] p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called nearest() with a null double[]");
+        if (p.length != k) throw new java.lang.IllegalArgumentException(
+                "called nearest() with a point of the wrong dimension");
+        if (isEmpty()) return null;
+        Search search = new Search(p);
+        nearest(root, search, 0);
+        return search.champion.clone();
+    }
+    
+    private void nearest(Node n, Search search, double toCell) {
+        if (n == null) return;
+        
+        double d = distanceSquared(n.point, search.query);
+        if (d < search.championDistance) {
+            search.champion = n.point;
+            search.championDistance = d;
+        }
+        
+        int axis = n.axis;
+        double toPartitionLine = search.query[axis] - n.point[axis];
+        Node near = toPartitionLine < 0 ? n.lb : n.rt;
+        Node far = toPartitionLine < 0 ? n.rt : n.lb;
+        nearest(near, search, toCell);
+        
+        // Swap this axis's offset for the distance to the partition line
+        double offset = search.offsets[axis];
+        double toFar = toCell - offset * offset
+                + toPartitionLine * toPartitionLine;
+        if (toFar < search.championDistance) {
+            search.offsets[axis] = toPartitionLine;
+            nearest(far, search, toFar);
+            search.offsets[axis] = offset;
+        }
+    }
+    
+    private static double distanceSquared(double[] p, double[] q) {
+        double sum = 0;
+        for (int i = 0; i < p.length; i++) {
+            double d = p[i] - q[i];
+            sum += d * d;
+        }
+        return sum;
+    }
+    
+    /**
+     * The state of a single nearest() search.
+     */
+    private static class Search {
+        private final double[] query;
+        
+        // the offset from the query point to the current cell, on each axis
+        private final double[] offsets;
+        
+        private double[] champion;
+        private double championDistance = Double.POSITIVE_INFINITY;
+        
+        private Search(double[] query) {
+            this.query = query;
+            offsets = new double[query.length];
+        }
+    }
+    
+    /**
+     * The data structure from which a KdTreeND is created.
+     */
+    private static class Node {
+        
+        // the point
+        private final double[] point;
+        
+        // the axis along which this Node partitions space
+        private final int axis;
+        
+        // the subtree below/above this Node's coordinate on its axis
+        private Node lb;
+        private Node rt;
+        
+        // the number of points in this subtree
+        private int size;
+        
+        private Node(double[] point, int axis) {
+            this.point = point;
+            this.axis = axis;
+            size = 1;
+        }
+    }
+    
+    /**
+     * Unit testing of the methods (optional).
+     * @param args
+     */
+    public static void main(String[] args) {
+        KdTreeND kdtree = new KdTreeND(new double[] {-180, -90, 0},
+                new double[] {180, 90, 86400}, Split.WIDEST);
+        double[] p = {-122.4, 37.8, 43200};
+        kdtree.insert(p);
+        StdOut.println(kdtree.contains(p));
+        StdOut.println(Arrays.toString(kdtree.nearest(new double[] {0, 0, 0})));
+    }
+}
@@ -0,0 +1,109 @@
+
+import java.util.Arrays;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * This immutable data type is a snapshot of the shape of a KdTree, as
+ * taken by KdTree.stats().
+ * 
+ * Besides the number of points and tombstones, it records how deep the
+ * Nodes lie: the height of the BST, the average depth of its leaves, and
+ * the number of Nodes at each depth.  The imbalance ratio compares the
+ * height against that of a perfectly balanced BST with as many Nodes, so
+ * it is 1.0 for a perfectly balanced BST, and grows as the BST degenerates.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class KdTreeStats {
+    private final int size;
+    private final int tombstones;
+    private final int height;
+    private final double averageLeafDepth;
+    private final int[] depthHistogram;
+    
+    KdTreeStats(int size, int tombstones, int height,
+            double averageLeafDepth, int[] depthHistogram) {
+        this.size = size;
+        this.tombstones = tombstones;
+        this.height = height;
+        this.averageLeafDepth = averageLeafDepth;
+        this.depthHistogram = depthHistogram;
+    }
+    
+    /**
+     * @return the number of points in the set.
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * @return the number of removed points still held as tombstones.
+     */
+    public int tombstones() {
+        return tombstones;
+    }
+    
+    /**
+     * @return the height of the BST (a 1-node tree has height 0), counting
+     *         tombstones
+     */
+    public int height() {
+        return height;
+    }
+    
+    /**
+     * @return the average depth of the BST's leaves, or 0 if it is empty
+     */
+    public double averageLeafDepth() {
+        return averageLeafDepth;
+    }
+    
+    /**
+     * The height of the BST, plus one, over that of a perfectly balanced
+     * BST with as many Nodes, plus one.
+     * 
+     * @return 1.0 for a perfectly balanced (or empty) BST, and more the
+     *         less balanced it is
+     */
+    public double imbalanceRatio() {
+        int nodes = size + tombstones;
+        if (nodes == 0) return 1.0;
+        int balanced = 32 - Integer.numberOfLeadingZeros(nodes);
+        return (double) (height + 1) / balanced;
+    }
+    
+    /**
+     * @return the number of Nodes at each depth, tombstones included,
+     *         from the root's at index 0 to the deepest leaf's at index
+     *         height()
+     */
+    public int[] depthHistogram() {
+        return depthHistogram.clone();
+    }
+    
+    @Override
+    public String toString() {
+        return "size=" + size + " tombstones=" + tombstones
+                + " height=" + height
+                + String.format(" averageLeafDepth=%.2f", averageLeafDepth)
+                + String.format(" imbalanceRatio=%.2f", imbalanceRatio())
+                + " depthHistogram=" + Arrays.toString(depthHistogram);
+    }
+}
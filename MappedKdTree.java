@@ -0,0 +1,334 @@
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * This immutable data type represents a set of points in the "Unit Square",
+ * served directly out of a memory-mapped snapshot file.
+ * 
+ * The snapshot holds a FlatKdTree exactly as it is laid out in memory: a
+ * 16-byte header (the magic number "KDT1", a format version, and the number
+ * of points), followed by the x- and y-coordinate of each point as
+ * little-endian doubles, in implicit tree order.  The topology is implicit
+ * in that order, just as it is in FlatKdTree.
+ * 
+ * open() therefore reads only the header; contains(), range() and nearest(),
+ * which it shares with FlatKdTree through ImplicitKdTree, then descend the
+ * tree by reading coordinates straight out of the mapping, without
+ * deserializing anything.  Startup takes constant time plus the page
+ * faults of the first few queries, and every JVM mapping the same file on a
+ * host shares one copy of it in the page cache.
+ * 
+ * A KdTree is written by copying its points into a mapping of the new file,
+ * and laying them out there, in place, so that no FlatKdTree of them need
+ * be built on the heap alongside the KdTree.
+ * 
+ * Since a single mapping is limited to 2 GiB, the file is mapped in segments
+ * of SEGMENT_POINTS points each.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class MappedKdTree extends ImplicitKdTree {
+    
+    // the bytes "KDT1", identifying a snapshot file, read as a little-endian
+    // int
+    private static final int MAGIC = 0x3154444B;
+    
+    // the version of the snapshot format
+    private static final int VERSION = 1;
+    
+    // magic, version, and the number of points
+    private static final int HEADER_BYTES = 16;
+    
+    // an x- and a y-coordinate
+    private static final int POINT_BYTES = 16;
+    
+    // the number of points in each mapped segment, 2^26 or 1 GiB worth
+    private static final int SEGMENT_SHIFT = 26;
+    private static final int SEGMENT_POINTS = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_POINTS - 1;
+    
+    private final MappedByteBuffer[] segments;
+    private final int n;
+    
+    private MappedKdTree(MappedByteBuffer[] segments, int n) {
+        this.segments = segments;
+        this.n = n;
+    }
+    
+    /**
+     * Write the given tree to a snapshot file at the given path, replacing
+     * any file already there.
+     * 
+     * @param tree the tree to write
+     * @param path the path of the snapshot file
+     * @throws NullPointerException if {@code tree} or {@code path} is
+     *         {@code null}
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(FlatKdTree tree, Path path) throws IOException {
+        if (tree == null) throw new java.lang.NullPointerException(
+                "called write() with a null FlatKdTree");
+        if (path == null) throw new java.lang.NullPointerException(
+                "called write() with a null Path");
+        
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(tree.size());
+            for (int i = 0; i < tree.size(); i++) {
+                if (buffer.remaining() < POINT_BYTES) drain(buffer, channel);
+                buffer.putDouble(tree.x(i)).putDouble(tree.y(i));
+            }
+            drain(buffer, channel);
+            channel.force(true);
+        }
+    }
+    
+    /**
+     * Write the set of the given points to a snapshot file at the given path,
+     * replacing any file already there.
+     * 
+     * @param points the points to write
+     * @param path the path of the snapshot file
+     * @throws NullPointerException if {@code points} or {@code path} is
+     *         {@code null}, or if any of the points is {@code null}
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Iterable<Point2D> points, Path path)
+            throws IOException {
+        write(new FlatKdTree(points), path);
+    }
+    
+    /**
+     * Write the points of the given KdTree to a snapshot file at the given
+     * path, replacing any file already there.
+     * 
+     * The points are laid out within a mapping of the file itself, so the
+     * only memory this takes, beyond the KdTree, is the page cache.
+     * 
+     * @param tree the tree to write
+     * @param path the path of the snapshot file
+     * @throws NullPointerException if {@code tree} or {@code path} is
+     *         {@code null}
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(KdTree tree, Path path) throws IOException {
+        if (tree == null) throw new java.lang.NullPointerException(
+                "called write() with a null KdTree");
+        if (path == null) throw new java.lang.NullPointerException(
+                "called write() with a null Path");
+        
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            int n = tree.size();
+            final MappedKdTree mapped = new MappedKdTree(map(channel,
+                    FileChannel.MapMode.READ_WRITE, n), n);
+            
+            // Shuffle the points as they are copied in, by placing each at
+            // a random index so far, to guard against quadratic selection
+            double max = Double.MAX_VALUE;
+            RectHV everywhere = new RectHV(-max, -max, max, max);
+            tree.range(everywhere, new KdTree.PointConsumer() {
+                private int i = 0;
+                @Override
+                public boolean accept(Point2D p) {
+                    int j = StdRandom.uniform(i + 1);
+                    mapped.put(i, mapped.x(j), mapped.y(j));
+                    mapped.put(j, p.x(), p.y());
+                    i++;
+                    return true;
+                }
+            });
+            mapped.build(0, n - 1, true);
+            for (MappedByteBuffer segment: mapped.segments) segment.force();
+            
+            // Write the header last, so that a snapshot cut short by a crash
+            // is never mistaken for a whole one
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(n).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+    }
+    
+    private static void drain(ByteBuffer buffer, FileChannel channel)
+            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+    
+    /**
+     * Map the snapshot file at the given path.
+     * 
+     * @param path the path of the snapshot file
+     * @return the set of points in the snapshot
+     * @throws NullPointerException if {@code path} is {@code null}
+     * @throws IOException if the file cannot be read, or is not a snapshot
+     */
+    public static MappedKdTree open(Path path) throws IOException {
+        if (path == null) throw new java.lang.NullPointerException(
+                "called open() with a null Path");
+        
+        // The mappings remain valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException(path + " is not a KdTree snapshot");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a KdTree snapshot");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + " has unsupported version "
+                        + version);
+            }
+            long size = header.getLong();
+            if (size < 0 || size > Integer.MAX_VALUE
+                    || channel.size() != HEADER_BYTES + size * POINT_BYTES) {
+                throw new IOException(path + " is truncated or corrupt");
+            }
+            
+            int n = (int) size;
+            return new MappedKdTree(map(channel, FileChannel.MapMode.READ_ONLY,
+                    n), n);
+        }
+    }
+    
+    /**
+     * Map the n points following the header of the file open on the given
+     * channel, in segments of SEGMENT_POINTS points.
+     */
+    private static MappedByteBuffer[] map(FileChannel channel,
+            FileChannel.MapMode mode, int n) throws IOException {
+        int count = (int) (((long) n + SEGMENT_POINTS - 1) >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        for (int s = 0; s < count; s++) {
+            long first = (long) s << SEGMENT_SHIFT;
+            long points = Math.min(SEGMENT_POINTS, n - first);
+            segments[s] = channel.map(mode,
+                    HEADER_BYTES + first * POINT_BYTES, points * POINT_BYTES);
+            segments[s].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return segments;
+    }
+    
+    @Override
+    double x(int i) {
+        return segments[i >>> SEGMENT_SHIFT]
+                .getDouble((i & SEGMENT_MASK) * POINT_BYTES);
+    }
+    
+    @Override
+    double y(int i) {
+        return segments[i >>> SEGMENT_SHIFT]
+                .getDouble((i & SEGMENT_MASK) * POINT_BYTES + 8);
+    }
+    
+    // set the coordinates of the point at index i, while writing a snapshot
+    private void put(int i, double x, double y) {
+        segments[i >>> SEGMENT_SHIFT]
+                .putDouble((i & SEGMENT_MASK) * POINT_BYTES, x)
+                .putDouble((i & SEGMENT_MASK) * POINT_BYTES + 8, y);
+    }
+    
+    @Override
+    void exch(int i, int j) {
+        double x = x(i);
+        double y = y(i);
+        put(i, x(j), y(j));
+        put(j, x, y);
+    }
+    
+    @Override
+    public int size() {
+        return n;
+    }
+    
+    /**
+     * Unit testing of the methods (optional).
+     * 
+     * Writes a snapshot of random points to the given path, maps it, and
+     * checks it against the FlatKdTree it was written from; then does the
+     * same for a KdTree of the same points.
+     * 
+     * @param args the path of the snapshot file, and the number of points
+     */
+    public static void main(String[] args) throws IOException {
+        Path path = Paths.get(args.length > 0 ? args[0] : "kdtree.snapshot");
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        
+        Point2D[] points = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+        }
+        FlatKdTree flat = new FlatKdTree(points);
+        write(flat, path);
+        
+        long start = System.nanoTime();
+        MappedKdTree mapped = open(path);
+        StdOut.printf("mapped %d points in %.3f ms%n", mapped.size(),
+                (System.nanoTime() - start) / 1e6);
+        
+        int mismatches = 0;
+        for (int i = 0; i < 1000; i++) {
+            Point2D q = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+            if (!mapped.contains(points[i % n])) mismatches++;
+            if (!mapped.nearest(q).equals(flat.nearest(q))) mismatches++;
+        }
+        StdOut.println(mismatches + " mismatches");
+        
+        // The same points, written from a KdTree, laid out in the file
+        KdTree kdtree = KdTree.build(points);
+        write(kdtree, path);
+        mapped = open(path);
+        mismatches = 0;
+        for (int i = 0; i < 1000; i++) {
+            Point2D q = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+            if (!mapped.contains(points[i % n])) mismatches++;
+            if (!mapped.nearest(q).equals(flat.nearest(q))) mismatches++;
+        }
+        StdOut.println(mismatches + " mismatches, written from a KdTree");
+    }
+}
@@ -0,0 +1,394 @@
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.Stack;
+import edu.princeton.cs.algs4.StdDraw;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * This immutable data type represents one version of a set of points in the
+ * "Unit Square".
+ * 
+ * Its representation is a 2d-tree, as in KdTree, but its Nodes are never
+ * modified.  Instead, insert() returns a new version, copying only the path
+ * from the root down to the new Node and sharing every subtree off that
+ * path with this version.  Each insert thus allocates O(log n) new Nodes,
+ * and a version that is no longer referenced is reclaimed by the garbage
+ * collector, save for whatever Nodes the newer versions still share.
+ * 
+ * As in KdTree, a subtree which grows too deep for its size is rebuilt, in
+ * the manner of a scapegoat tree, so that the height stays proportional to
+ * log n.  Only the scapegoat's subtree is copied to do so.
+ * 
+ * Since a version never changes, it may be searched by any number of
+ * threads at once, and for as long as they like, without locking.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class PersistentKdTree {
+    
+    // the weight-balance factor which bounds the height of any subtree
+    private static final double ALPHA = 0.75;
+    
+    // the empty set, from which every other version descends
+    private static final PersistentKdTree EMPTY = new PersistentKdTree(null);
+    
+    // makes each Node as build() lays it out
+    private static final PointArrays.NodeFactory<Node> NODES =
+            new PointArrays.NodeFactory<Node>() {
+                @Override
+                public Node create(Point2D p, RectHV rect, Node lb, Node rt) {
+                    return new Node(p, rect, lb, rt);
+                }
+            };
+    
+    private final Node root;
+    
+    private PersistentKdTree(Node root) {
+        this.root = root;
+    }
+    
+    /**
+     * @return the empty set of points
+     */
+    public static PersistentKdTree empty() {
+        return EMPTY;
+    }
+    
+    /**
+     * Is the set empty?
+     * 
+     * @return {@code true} if this set is empty;
+     *         {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+    
+    /**
+     * @return the number of points in the set.
+     */
+    public int size() {
+        return size(root);
+    }
+    
+    // return number of points in the subtree rooted at n
+    private static int size(Node n) {
+        if (n == null) return 0;
+        else return n.size;
+    }
+    
+    /**
+     * Return the set with the point added to it.
+     * 
+     * This version is left as it was.
+     * 
+     * @param p the point to add
+     * @return a version which also contains p, sharing all but O(log n)
+     *         Nodes with this one; or this version, if it already
+     *         contains p
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public PersistentKdTree insert(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called insert() with a null Point2D");
+        Insertion insertion = new Insertion(p, size(root) + 1);
+        Node updated = insertion.insert(root, true, 0, 0, 1, 1, 0);
+        if (updated == root) return this;
+        return new PersistentKdTree(updated);
+    }
+    
+    /**
+     * The state of a single insert(), kept apart from the immutable tree so
+     * that versions may be inserted into from several threads at once.
+     */
+    private static class Insertion {
+        
+        // the point to add
+        private final Point2D p;
+        
+        // the size of the tree once p is added
+        private final int size;
+        
+        // the depth of the new Node, if it calls for a rebuild, or -1
+        private int scapegoatDepth = -1;
+        
+        private Insertion(Point2D p, int size) {
+            this.p = p;
+            this.size = size;
+        }
+        
+        /**
+         * Return a copy of the subtree rooted at n with p added to it, or n
+         * itself if p is already there.
+         */
+        private Node insert(Node n, boolean evenLevel, double xmin,
+                double ymin, double xmax, double ymax, int depth) {
+            if (n == null) {
+                if (depth > maxHeight(size)) scapegoatDepth = depth;
+                return new Node(p, new RectHV(xmin, ymin, xmax, ymax), null,
+                        null);
+            }
+            
+            // Duplicates are silently dropped, and nothing needs copying
+            if (n.p.equals(p)) return n;
+            
+            Node copy;
+            int next = depth + 1;
+            if (comparePoints(p, n, evenLevel) < 0) {
+                Node lb = evenLevel
+                        ? insert(n.lb, false, xmin, ymin, n.p.x(), ymax, next)
+                        : insert(n.lb, true, xmin, ymin, xmax, n.p.y(), next);
+                if (lb == n.lb) return n;
+                copy = new Node(n.p, n.rect, lb, n.rt);
+            }
+            
+            // As in KdTree, ties are resolved in favor of the right subtree
+            else {
+                Node rt = evenLevel
+                        ? insert(n.rt, false, n.p.x(), ymin, xmax, ymax, next)
+                        : insert(n.rt, true, xmin, n.p.y(), xmax, ymax, next);
+                if (rt == n.rt) return n;
+                copy = new Node(n.p, n.rect, n.lb, rt);
+            }
+            
+            // Rebuild the scapegoat, if it's this Node
+            if (scapegoatDepth >= 0
+                    && scapegoatDepth - depth > maxHeight(copy.size)) {
+                scapegoatDepth = -1;
+                return rebuild(copy, evenLevel);
+            }
+            return copy;
+        }
+    }
+    
+    /**
+     * Does the set contain point p?
+     * 
+     * @param p the point to look for
+     * @return {@code true} if the set contains point p;
+     *         {@code false} otherwise
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public boolean contains(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called contains() with a null Point2D");
+        Node n = root;
+        boolean evenLevel = true;
+        while (n != null) {
+            if (n.p.equals(p)) return true;
+            if (comparePoints(p, n, evenLevel) < 0) n = n.lb;
+            else n = n.rt;
+            evenLevel = !evenLevel;
+        }
+        return false;
+    }
+    
+    /**
+     * Draw all points and partition lines to standard draw.
+     */
+    public void draw() {
+        draw(root, true);
+    }
+    
+    private void draw(Node n, boolean evenLevel) {
+        if (n == null) return;
+        draw(n.lb, !evenLevel);
+        
+        // Draw the current Node
+        StdDraw.setPenColor(StdDraw.BLACK);
+        StdDraw.setPenRadius(0.01);
+        n.p.draw();
+        
+        // Draw the partition line
+        StdDraw.setPenRadius();
+        if (evenLevel) {
+            StdDraw.setPenColor(StdDraw.RED);
+            StdDraw.line(n.p.x(), n.rect.ymin(), n.p.x(), n.rect.ymax());
+        }
+        else {
+            StdDraw.setPenColor(StdDraw.BLUE);
+            StdDraw.line(n.rect.xmin(), n.p.y(), n.rect.xmax(), n.p.y());
+        }
+        draw(n.rt, !evenLevel);
+    }
+    
+    /**
+     * All points that are inside the rectangle.
+     * 
+     * @param rect the RectHV within which to look for points
+     * @return an iterator to all of the points within the given RectHV
+     * @throws NullPointerException if {@code rect} is {@code null}
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new java.lang.NullPointerException(
+                "called range() with a null RectHV");
+        Stack<Point2D> points = new Stack<>();
+        range(root, rect, points);
+        return points;
+    }
+    
+    private void range(Node n, RectHV rect, Stack<Point2D> points) {
+        if (n == null || !rect.intersects(n.rect)) return;
+        if (rect.contains(n.p)) points.push(n.p);
+        range(n.lb, rect, points);
+        range(n.rt, rect, points);
+    }
+    
+    /**
+     * A nearest neighbor in the set to point p; null if the set is empty.
+     * 
+     * @param p the point from which to search for a neighbor
+     * @return the nearest neighbor to the given point p,
+     *         {@code null} otherwise.
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called nearest() with a null Point2D");
+        Node n = root;
+        if (n == null) return null;
+        return nearest(n, p, n.p, true);
+    }
+    
+    private Point2D nearest(Node n, Point2D p, Point2D champion,
+            boolean evenLevel) {
+        if (n == null) return champion;
+        if (n.p.distanceSquaredTo(p) < champion.distanceSquaredTo(p)) {
+            champion = n.p;
+        }
+        
+        // Search the near side first, and the far side only if it could win
+        double toPartitionLine = comparePoints(p, n, evenLevel);
+        Node near = toPartitionLine < 0 ? n.lb : n.rt;
+        Node far = toPartitionLine < 0 ? n.rt : n.lb;
+        champion = nearest(near, p, champion, !evenLevel);
+        if (champion.distanceSquaredTo(p) >=
+                toPartitionLine * toPartitionLine) {
+            champion = nearest(far, p, champion, !evenLevel);
+        }
+        return champion;
+    }
+    
+    /**
+     * The distance and direction from the given point to the given Node's
+     * partition line, as in KdTree.
+     */
+    private static double comparePoints(Point2D p, Node n, boolean evenLevel) {
+        if (evenLevel) return p.x() - n.p.x();
+        else return p.y() - n.p.y();
+    }
+    
+    /**
+     * The greatest height which a subtree of the given size may reach
+     * before it must be rebuilt.
+     */
+    private static int maxHeight(int size) {
+        return (int) (Math.log(size) / Math.log(1 / ALPHA));
+    }
+    
+    /**
+     * Build a fresh, balanced subtree out of the points in the subtree
+     * rooted at n, over the same rectangle.
+     */
+    private static Node rebuild(Node n, boolean evenLevel) {
+        Point2D[] a = new Point2D[n.size];
+        collect(n, a, 0);
+        StdRandom.shuffle(a);
+        return build(a, 0, a.length - 1, evenLevel, n.rect.xmin(),
+                n.rect.ymin(), n.rect.xmax(), n.rect.ymax());
+    }
+    
+    // gather the points in the subtree rooted at n into a, from index i
+    private static int collect(Node n, Point2D[] a, int i) {
+        if (n == null) return i;
+        a[i++] = n.p;
+        i = collect(n.lb, a, i);
+        return collect(n.rt, a, i);
+    }
+    
+    /**
+     * Build a balanced subtree out of a[lo..hi], as KdTree.build() does.
+     */
+    private static Node build(Point2D[] a, int lo, int hi, boolean evenLevel,
+            double xmin, double ymin, double xmax, double ymax) {
+        return PointArrays.build(a, lo, hi, evenLevel, xmin, ymin, xmax, ymax,
+                NODES);
+    }
+    
+    /**
+     * The immutable data structure from which a PersistentKdTree is created.
+     */
+    private static class Node {
+        
+        // the point
+        private final Point2D p;
+        
+        // the axis-aligned rectangle corresponding to this node
+        private final RectHV rect;
+        
+        // the left/bottom subtree
+        private final Node lb;
+        
+        // the right/top subtree
+        private final Node rt;
+        
+        // the number of points in this subtree
+        private final int size;
+        
+        private Node(Point2D p, RectHV rect, Node lb, Node rt) {
+            this.p = p;
+            this.rect = rect;
+            this.lb = lb;
+            this.rt = rt;
+            size = 1 + size(lb) + size(rt);
+        }
+    }
+    
+    /**
+     * Unit testing of the methods (optional).
+     * 
+     * Inserts points one at a time, keeping every version, and checks that
+     * each version still holds exactly the points inserted before it.
+     * 
+     * @param args the number of points to insert
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        Point2D[] points = new Point2D[n];
+        PersistentKdTree[] versions = new PersistentKdTree[n + 1];
+        versions[0] = PersistentKdTree.empty();
+        for (int i = 0; i < n; i++) {
+            points[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+            versions[i + 1] = versions[i].insert(points[i]);
+        }
+        
+        int failures = 0;
+        for (int v = 0; v <= n; v += Math.max(1, n / 10)) {
+            if (versions[v].size() != v) failures++;
+            for (int i = 0; i < n; i++) {
+                if (versions[v].contains(points[i]) != i < v) failures++;
+            }
+        }
+        StdOut.println(versions[n].size() + " points, " + failures
+                + " failures");
+    }
+}
@@ -0,0 +1,257 @@
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.Queue;
+import edu.princeton.cs.algs4.RectHV;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The array handling shared by the trees which are built out of arrays of
+ * points.
+ * 
+ * build() lays out a balanced 2d-tree by median partitioning, as used by
+ * KdTree and PersistentKdTree, each of which supplies its own kind of Node
+ * through a NodeFactory.  The median() and select() methods are
+ * algs4.Quick.select(), restricted to a[lo..hi], for each of the ways in
+ * which these trees hold points: as Point2D objects, as parallel arrays of
+ * coordinates, or as one array of coordinates per point.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+final class PointArrays {
+    
+    private PointArrays() { }
+    
+    /**
+     * Makes the Nodes of a tree laid out by build().
+     */
+    interface NodeFactory<N> {
+        
+        /**
+         * @param p the Node's point
+         * @param rect the Node's rectangle
+         * @param lb the Node's left/bottom subtree
+         * @param rt the Node's right/top subtree
+         * @return a new Node
+         */
+        N create(Point2D p, RectHV rect, N lb, N rt);
+    }
+    
+    /**
+     * Copy the given points into a new array, in the order in which they
+     * are iterated.
+     * 
+     * @param points the points to copy
+     * @param caller the name of the method copying them, for the exception
+     * @return an array of the points
+     * @throws NullPointerException if {@code points} is {@code null}
+     */
+    static Point2D[] toArray(Iterable<Point2D> points, String caller) {
+        if (points == null) throw new java.lang.NullPointerException(
+                "called " + caller + " with a null Iterable<Point2D>");
+        Queue<Point2D> q = new Queue<>();
+        for (Point2D p: points) q.enqueue(p);
+        Point2D[] a = new Point2D[q.size()];
+        for (int i = 0; i < a.length; i++) a[i] = q.dequeue();
+        return a;
+    }
+    
+    /**
+     * Build a balanced subtree out of a[lo..hi], whose points all lie within
+     * the rectangle given by xmin, ymin, xmax, and ymax.
+     * 
+     * Since insert() resolves ties with the partition line in favor of the
+     * right subtree, points which tie the median are placed there too.
+     */
+    static <N> N build(Point2D[] a, int lo, int hi, boolean evenLevel,
+            double xmin, double ymin, double xmax, double ymax,
+            NodeFactory<N> factory) {
+        if (hi < lo) return null;
+        
+        int mid = median(a, lo, hi, evenLevel);
+        double key = key(a[mid], evenLevel);
+        RectHV rect = new RectHV(xmin, ymin, xmax, ymax);
+        N lb;
+        N rt;
+        if (evenLevel) {
+            lb = build(a, lo, mid - 1, false, xmin, ymin, key, ymax, factory);
+            rt = build(a, mid + 1, hi, false, key, ymin, xmax, ymax, factory);
+        }
+        else {
+            lb = build(a, lo, mid - 1, true, xmin, ymin, xmax, key, factory);
+            rt = build(a, mid + 1, hi, true, xmin, key, xmax, ymax, factory);
+        }
+        return factory.create(a[mid], rect, lb, rt);
+    }
+    
+    /**
+     * Rearrange a[lo..hi] about its median along this level's axis, such
+     * that no point before the returned index reaches the median on that
+     * axis, and no point after it falls short.
+     * 
+     * After selection, a[lo..mid-1] are no greater than a[mid], but some
+     * of them may tie a[mid].  Since ties belong in the right subtree, they
+     * are moved to the end of a[lo..mid-1], and the first of them becomes
+     * the median.
+     * 
+     * @return the index of the median
+     */
+    static int median(Point2D[] a, int lo, int hi, boolean evenLevel) {
+        int mid = lo + (hi - lo) / 2;
+        select(a, lo, hi, mid, evenLevel);
+        double key = key(a[mid], evenLevel);
+        int j = mid;
+        for (int i = mid - 1; i >= lo; i--) {
+            if (key(a[i], evenLevel) == key) exch(a, i, --j);
+        }
+        return j;
+    }
+    
+    /**
+     * As median(Point2D[], int, int, boolean), along the given axis of
+     * points with any number of coordinates.
+     */
+    static int median(double[][] a, int lo, int hi, int axis) {
+        int mid = lo + (hi - lo) / 2;
+        select(a, lo, hi, mid, axis);
+        double key = a[mid][axis];
+        int j = mid;
+        for (int i = mid - 1; i >= lo; i--) {
+            if (a[i][axis] == key) exch(a, i, --j);
+        }
+        return j;
+    }
+    
+    // return the coordinate of p along this level's axis
+    static double key(Point2D p, boolean evenLevel) {
+        if (evenLevel) return p.x();
+        else return p.y();
+    }
+    
+    /**
+     * Rearrange a[lo..hi] such that a[k] holds the point which would be
+     * there if a[lo..hi] were sorted along this level's axis, with no
+     * greater points before it and no lesser points after it.
+     */
+    private static void select(Point2D[] a, int lo, int hi, int k,
+            boolean evenLevel) {
+        while (hi > lo) {
+            int i = lo;
+            int j = hi + 1;
+            double v = key(a[lo], evenLevel);
+            while (true) {
+                while (key(a[++i], evenLevel) < v) if (i == hi) break;
+                while (v < key(a[--j], evenLevel)) if (j == lo) break;
+                if (i >= j) break;
+                exch(a, i, j);
+            }
+            exch(a, lo, j);
+            if      (j > k) hi = j - 1;
+            else if (j < k) lo = j + 1;
+            else return;
+        }
+    }
+    
+    // as select(Point2D[], ...), along the given axis
+    private static void select(double[][] a, int lo, int hi, int k,
+            int axis) {
+        while (hi > lo) {
+            int i = lo;
+            int j = hi + 1;
+            double v = a[lo][axis];
+            while (true) {
+                while (a[++i][axis] < v) if (i == hi) break;
+                while (v < a[--j][axis]) if (j == lo) break;
+                if (i >= j) break;
+                exch(a, i, j);
+            }
+            exch(a, lo, j);
+            if      (j > k) hi = j - 1;
+            else if (j < k) lo = j + 1;
+            else return;
+        }
+    }
+    
+    // as select(Point2D[], ...), by a, moving b alongside it
+    static void select(double[] a, double[] b, int lo, int hi, int k) {
+        while (hi > lo) {
+            int i = lo;
+            int j = hi + 1;
+            double v = a[lo];
+            while (true) {
+                while (a[++i] < v) if (i == hi) break;
+                while (v < a[--j]) if (j == lo) break;
+                if (i >= j) break;
+                exch(a, b, i, j);
+            }
+            exch(a, b, lo, j);
+            if      (j > k) hi = j - 1;
+            else if (j < k) lo = j + 1;
+            else return;
+        }
+    }
+    
+    // as select(Point2D[], ...), by a, moving b alongside it
+    static void select(int[] a, int[] b, int lo, int hi, int k) {
+        while (hi > lo) {
+            int i = lo;
+            int j = hi + 1;
+            int v = a[lo];
+            while (true) {
+                while (a[++i] < v) if (i == hi) break;
+                while (v < a[--j]) if (j == lo) break;
+                if (i >= j) break;
+                exch(a, b, i, j);
+            }
+            exch(a, b, lo, j);
+            if      (j > k) hi = j - 1;
+            else if (j < k) lo = j + 1;
+            else return;
+        }
+    }
+    
+    static void exch(Point2D[] a, int i, int j) {
+        Point2D swap = a[i];
+        a[i] = a[j];
+        a[j] = swap;
+    }
+    
+    static void exch(double[][] a, int i, int j) {
+        double[] swap = a[i];
+        a[i] = a[j];
+        a[j] = swap;
+    }
+    
+    static void exch(double[] a, double[] b, int i, int j) {
+        double swap = a[i];
+        a[i] = a[j];
+        a[j] = swap;
+        swap = b[i];
+        b[i] = b[j];
+        b[j] = swap;
+    }
+    
+    static void exch(int[] a, int[] b, int i, int j) {
+        int swap = a[i];
+        a[i] = a[j];
+        a[j] = swap;
+        swap = b[i];
+        b[i] = b[j];
+        b[j] = swap;
+    }
+}
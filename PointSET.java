@@ -32,16 +32,34 @@ import edu.princeton.cs.algs4.Stack;
  * 
  * More specifically, algs4.SET is a wrapper around java.util.TreeSet.
  * 
+ * range() and nearest() must touch every point anyway, so rather than
+ * walking the SET, they scan copies of the points' coordinates kept in
+ * parallel arrays, by means of PointScan.
+ * 
  * @author Michael <GrubenM@GMail.com>
  */
 public class PointSET {
+    
+    // the number of points scanned by range() between pushes onto its Stack
+    private static final int BLOCK = 1024;
+    
     private SET<Point2D> rb;
     
+    // the points, in the order they were added, and their coordinates
+    private Point2D[] points;
+    private double[] xs;
+    private double[] ys;
+    
+    private final PointScan scan = PointScan.get();
+    
     /**
      * Construct an empty set of points.
      */
     public PointSET() {
        rb = new SET<>();
+       points = new Point2D[16];
+       xs = new double[16];
+       ys = new double[16];
     }
     
     /**
@@ -78,13 +96,26 @@ public class PointSET {
      * That is because, in the worst case, java.util.TreeSet.add() takes
      * logarithmic time.
      * 
+     * The parallel arrays are doubled as they fill, so appending to them
+     * takes amortized constant time.
+     * 
      * @param p the point to add
      * @throws NullPointerException if {@code p} is {@code null}
      */
     public void insert(Point2D p) {
         if (p == null) throw new java.lang.NullPointerException(
                 "called insert() with a null Point2D");
+        if (rb.contains(p)) return;
+        int n = rb.size();
         rb.add(p);
+        if (n == points.length) {
+            points = java.util.Arrays.copyOf(points, 2 * n);
+            xs = java.util.Arrays.copyOf(xs, 2 * n);
+            ys = java.util.Arrays.copyOf(ys, 2 * n);
+        }
+        points[n] = p;
+        xs[n] = p.x();
+        ys[n] = p.y();
     }
     
     /**
@@ -130,9 +161,16 @@ public class PointSET {
                 "called range() with a null RectHV");
         
         // Touch each point to see whether the given rect contains it.
+        // A block of BLOCK points at a time, so that the buffer of
+        // indices stays small however many points there are.
         Stack<Point2D> ans = new Stack<>();
-        for (Point2D p: rb) {
-            if (rect.contains(p)) ans.push(p);
+        int n = rb.size();
+        int[] indices = new int[Math.min(n, BLOCK)];
+        for (int lo = 0; lo < n; lo += BLOCK) {
+            int count = scan.range(xs, ys, lo, Math.min(n, lo + BLOCK),
+                    rect.xmin(), rect.ymin(), rect.xmax(), rect.ymax(),
+                    indices);
+            for (int i = 0; i < count; i++) ans.push(points[indices[i]]);
         }
         
         return ans;
@@ -155,20 +193,8 @@ public class PointSET {
         
         if (rb.isEmpty()) return null;
         
-        // Initialize loop variables
-        Point2D closestPoint = null; // null initialization required by Java?
-        double closestDistance = Double.MAX_VALUE;
-        
         // Touch every point to see which is the closest to the given point p
-        for (Point2D point: rb) {
-            double currentDistance = p.distanceTo(point);
-            if (currentDistance < closestDistance) {
-                closestDistance = currentDistance;
-                closestPoint = point;
-            }
-        }
-        
-        return closestPoint;
+        return points[scan.nearest(xs, ys, rb.size(), p.x(), p.y())];
     }
     
     /**
@@ -0,0 +1,100 @@
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A brute-force scan over points held in parallel arrays of coordinates,
+ * as used by PointSET.
+ * 
+ * Points are never boxed, and distances are compared squared, so that no
+ * square root is taken.  This class scans one point at a time; get()
+ * returns VectorPointScan instead, which scans several at a time with the
+ * Vector API, wherever it has been compiled onto the classpath and the
+ * jdk.incubator.vector module has been added (with --add-modules).
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+class PointScan {
+    
+    private static final PointScan INSTANCE = create();
+    
+    PointScan() { }
+    
+    /**
+     * @return the fastest scan available to this JVM
+     */
+    static PointScan get() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Load VectorPointScan by name, so that this class still loads, and
+     * falls back to scanning one point at a time, where the Vector API is
+     * missing.
+     */
+    private static PointScan create() {
+        try {
+            return (PointScan) Class.forName("VectorPointScan")
+                    .getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            return new PointScan();
+        }
+    }
+    
+    /**
+     * The index of the point among xs[0..n-1] and ys[0..n-1] nearest to
+     * (x, y), or -1 if n is 0.
+     */
+    int nearest(double[] xs, double[] ys, int n, double x, double y) {
+        int champion = -1;
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            double dx = xs[i] - x;
+            double dy = ys[i] - y;
+            double d = dx * dx + dy * dy;
+            if (d < best) {
+                champion = i;
+                best = d;
+            }
+        }
+        return champion;
+    }
+    
+    /**
+     * Write to indices the index of each point among xs[lo..hi-1] and
+     * ys[lo..hi-1] within the given rectangle, in increasing order, and
+     * return how many there are.  indices must hold at least hi - lo
+     * elements.
+     */
+    int range(double[] xs, double[] ys, int lo, int hi, double xmin,
+            double ymin, double xmax, double ymax, int[] indices) {
+        int count = 0;
+        for (int i = lo; i < hi; i++) {
+            if (xs[i] >= xmin && xs[i] <= xmax
+                    && ys[i] >= ymin && ys[i] <= ymax) {
+                indices[count++] = i;
+            }
+        }
+        return count;
+    }
+    
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,312 @@
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.Stack;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import java.util.Arrays;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * This immutable data type represents a set of points in the "Unit Square",
+ * stored in 8 bytes per point.
+ * 
+ * Like FlatKdTree, its representation is a balanced 2d-tree laid out
+ * implicitly in parallel arrays, with each cell's bounds derived during
+ * descent rather than stored.  But rather than doubles, each coordinate is
+ * kept as a 31-bit fixed-point int: round(v * 2^30), so that 1.0 still
+ * fits, and so that coordinates which are multiples of 2^-30, such as 0.5
+ * or 0.125, are kept exactly.  Where KdTree spends well over 100 bytes on
+ * each point, in its Node, Point2D and RectHV, this spends 8.
+ * 
+ * This storage is lossy: each coordinate is moved by up to 2^-31 (about
+ * 4.7e-10), half a quantum, to the nearest representable value, and points
+ * which round to the same values become one.  Every query treats the set as
+ * holding those rounded points, which it dequantizes back into doubles as
+ * it goes: the points returned are the rounded ones, nearest() measures
+ * exact distances to them, and contains() reports whether the given point
+ * rounds to one of them.  range() tests them against the given RectHV
+ * widened by half a quantum on every side, so that no point which was
+ * inside the RectHV is lost to rounding; a point which was just outside
+ * may be returned in its stead.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class QuantizedKdTree {
+    
+    // the fixed-point value of 1.0
+    private static final double SCALE = 1 << 30;
+    
+    // the furthest that rounding moves a coordinate
+    private static final double HALF_QUANTUM = 0.5 / SCALE;
+    
+    private final int[] xs;
+    private final int[] ys;
+    
+    /**
+     * Construct the set of the given points, rounded to fixed point.
+     * 
+     * Points which round to the same fixed-point coordinates are silently
+     * dropped, as are duplicates.
+     * 
+     * @param points the points to add
+     * @throws NullPointerException if {@code points} is {@code null},
+     *         or if any of its points is {@code null}
+     * @throws IllegalArgumentException if any of the points lies outside
+     *         of the unit square
+     */
+    public QuantizedKdTree(Point2D[] points) {
+        if (points == null) throw new java.lang.NullPointerException(
+                "called QuantizedKdTree() with a null Point2D[]");
+        
+        // Pack each point into a long, so that sorting brings duplicates
+        // together
+        long[] keys = new long[points.length];
+        for (int i = 0; i < points.length; i++) {
+            if (points[i] == null) throw new java.lang.NullPointerException(
+                    "called QuantizedKdTree() with a null Point2D");
+            keys[i] = (long) quantize(points[i].x()) << 31
+                    | quantize(points[i].y());
+        }
+        Arrays.sort(keys);
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (n == 0 || keys[i] != keys[n - 1]) keys[n++] = keys[i];
+        }
+        
+        xs = new int[n];
+        ys = new int[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = (int) (keys[i] >>> 31);
+            ys[i] = (int) (keys[i] & Integer.MAX_VALUE);
+        }
+        
+        // Guard against quadratic selection on sorted input
+        for (int i = 0; i < n; i++) {
+            PointArrays.exch(xs, ys, i, i + StdRandom.uniform(n - i));
+        }
+        build(0, n - 1, true);
+    }
+    
+    /**
+     * Construct the set of the given points, rounded to fixed point.
+     * 
+     * @param points the points to add
+     * @throws NullPointerException if {@code points} is {@code null},
+     *         or if any of its points is {@code null}
+     * @throws IllegalArgumentException if any of the points lies outside
+     *         of the unit square
+     */
+    public QuantizedKdTree(Iterable<Point2D> points) {
+        this(PointArrays.toArray(points, "QuantizedKdTree()"));
+    }
+    
+    // round v, within [0, 1], to fixed point
+    private static int quantize(double v) {
+        if (!(v >= 0 && v <= 1)) throw new java.lang.IllegalArgumentException(
+                "called QuantizedKdTree() with a point outside of the unit "
+                + "square");
+        return (int) Math.round(v * SCALE);
+    }
+    
+    // return the double value of the fixed-point q
+    private static double dequantize(int q) {
+        return q / SCALE;
+    }
+    
+    /**
+     * Is the set empty?
+     * 
+     * @return {@code true} if this set is empty;
+     *         {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return xs.length == 0;
+    }
+    
+    /**
+     * @return the number of points in the set.
+     */
+    public int size() {
+        return xs.length;
+    }
+    
+    /**
+     * Does the set contain a point to which p rounds?
+     * 
+     * @param p the point to look for
+     * @return {@code true} if p rounds to a point in the set;
+     *         {@code false} otherwise, including where p lies outside of
+     *         the unit square
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public boolean contains(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called contains() with a null Point2D");
+        if (!(p.x() >= 0 && p.x() <= 1 && p.y() >= 0 && p.y() <= 1)) {
+            return false;
+        }
+        return contains(0, xs.length - 1, quantize(p.x()), quantize(p.y()),
+                true);
+    }
+    
+    private boolean contains(int lo, int hi, int x, int y,
+            boolean evenLevel) {
+        
+        // Handle reaching the end of the search
+        if (hi < lo) return false;
+        
+        int mid = (lo + hi) >>> 1;
+        if (xs[mid] == x && ys[mid] == y) return true;
+        
+        int cmp = evenLevel ? Integer.compare(x, xs[mid])
+                : Integer.compare(y, ys[mid]);
+        if (cmp < 0) return contains(lo, mid - 1, x, y, !evenLevel);
+        if (cmp > 0) return contains(mid + 1, hi, x, y, !evenLevel);
+        
+        // Ties may have been placed on either side of the median
+        return contains(lo, mid - 1, x, y, !evenLevel)
+                || contains(mid + 1, hi, x, y, !evenLevel);
+    }
+    
+    /**
+     * All points that are inside the rectangle, widened by half a quantum
+     * on every side.
+     * 
+     * @param rect the RectHV within which to look for points
+     * @return an iterator to all of the points within the given RectHV
+     * @throws NullPointerException if {@code rect} is {@code null}
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new java.lang.NullPointerException(
+                "called range() with a null RectHV");
+        Stack<Point2D> points = new Stack<>();
+        range(0, xs.length - 1, true, rect.xmin() - HALF_QUANTUM,
+                rect.ymin() - HALF_QUANTUM, rect.xmax() + HALF_QUANTUM,
+                rect.ymax() + HALF_QUANTUM, points);
+        return points;
+    }
+    
+    private void range(int lo, int hi, boolean evenLevel, double xmin,
+            double ymin, double xmax, double ymax, Stack<Point2D> points) {
+        if (hi < lo) return;
+        int mid = (lo + hi) >>> 1;
+        double x = dequantize(xs[mid]);
+        double y = dequantize(ys[mid]);
+        
+        if (x >= xmin && x <= xmax && y >= ymin && y <= ymax) {
+            points.push(new Point2D(x, y));
+        }
+        
+        // As in FlatKdTree, a query touching the line descends both ways
+        double split = evenLevel ? x : y;
+        double min = evenLevel ? xmin : ymin;
+        double max = evenLevel ? xmax : ymax;
+        if (min <= split) {
+            range(lo, mid - 1, !evenLevel, xmin, ymin, xmax, ymax, points);
+        }
+        if (max >= split) {
+            range(mid + 1, hi, !evenLevel, xmin, ymin, xmax, ymax, points);
+        }
+    }
+    
+    /**
+     * A nearest neighbor in the set to point p; null if the set is empty.
+     * 
+     * @param p the point from which to search for a neighbor
+     * @return the nearest neighbor to the given point p,
+     *         {@code null} otherwise.
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called nearest() with a null Point2D");
+        if (isEmpty()) return null;
+        int mid = (xs.length - 1) >>> 1;
+        int champion = nearest(0, xs.length - 1, p.x(), p.y(), mid, true);
+        return new Point2D(dequantize(xs[champion]),
+                dequantize(ys[champion]));
+    }
+    
+    /**
+     * Return the index of the point closest to (x, y) among the champion and
+     * the points in [lo, hi].
+     */
+    private int nearest(int lo, int hi, double x, double y, int champion,
+            boolean evenLevel) {
+        
+        // Handle reaching the end of the tree
+        if (hi < lo) return champion;
+        
+        int mid = (lo + hi) >>> 1;
+        if (distanceSquared(mid, x, y) < distanceSquared(champion, x, y)) {
+            champion = mid;
+        }
+        
+        double toPartitionLine = evenLevel ? x - dequantize(xs[mid])
+                : y - dequantize(ys[mid]);
+        if (toPartitionLine < 0) {
+            champion = nearest(lo, mid - 1, x, y, champion, !evenLevel);
+            if (distanceSquared(champion, x, y) >=
+                    toPartitionLine * toPartitionLine) {
+                champion = nearest(mid + 1, hi, x, y, champion, !evenLevel);
+            }
+        }
+        else {
+            champion = nearest(mid + 1, hi, x, y, champion, !evenLevel);
+            if (distanceSquared(champion, x, y) >=
+                    toPartitionLine * toPartitionLine) {
+                champion = nearest(lo, mid - 1, x, y, champion, !evenLevel);
+            }
+        }
+        return champion;
+    }
+    
+    private double distanceSquared(int i, double x, double y) {
+        double dx = dequantize(xs[i]) - x;
+        double dy = dequantize(ys[i]) - y;
+        return dx * dx + dy * dy;
+    }
+    
+    /**
+     * Lay out xs[lo..hi] and ys[lo..hi] in implicit tree order, as in
+     * FlatKdTree.build().
+     */
+    private void build(int lo, int hi, boolean evenLevel) {
+        if (hi <= lo) return;
+        int mid = (lo + hi) >>> 1;
+        
+        // Select by this level's coordinate, carrying the other along
+        if (evenLevel) PointArrays.select(xs, ys, lo, hi, mid);
+        else PointArrays.select(ys, xs, lo, hi, mid);
+        build(lo, mid - 1, !evenLevel);
+        build(mid + 1, hi, !evenLevel);
+    }
+    
+    /**
+     * Unit testing of the methods (optional).
+     * @param args
+     */
+    public static void main(String[] args) {
+        Point2D p = new Point2D(0.2, 0.3);
+        QuantizedKdTree quantized = new QuantizedKdTree(new Point2D[] {p});
+        StdOut.println(quantized.contains(p));
+        StdOut.println(quantized.nearest(new Point2D(0.5, 0.5)));
+    }
+}
@@ -0,0 +1,522 @@
+
+import edu.princeton.cs.algs4.MinPQ;
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.Queue;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.Stack;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * This thread-safe, mutable data type represents a set of points in the
+ * "Unit Square", partitioned across independent KdTrees.
+ * 
+ * The unit square is divided among shards by a small 2d-tree, the router,
+ * whose every leaf is a shard: a KdTree holding the points within the
+ * leaf's rectangle, guarded by its own read-write lock.  Hence writers to
+ * different shards never wait on one another, and readers wait only on
+ * the writer of the shard they are reading.
+ * 
+ * insert(), remove() and contains() are routed to the one shard whose
+ * rectangle holds the point.  range() visits only the shards whose
+ * rectangles intersect the query rectangle.  nearest() visits shards in
+ * order of their distance from the query point, starting with its own,
+ * and stops once the next shard is farther away than the nearest point
+ * found so far.
+ * 
+ * Once a shard holds more than maxShardSize points, it is split in two at
+ * the median of its points along its longer side, and the router is
+ * replaced by a copy in which the shard's leaf has become a split.  The
+ * router itself is never modified once it is published, so it is read
+ * without locking.  A split shard is retired, and any writer which finds
+ * that it has locked a retired shard routes its point again.
+ * 
+ * range() and nearest() lock one shard at a time, so they see every
+ * point inserted before they started, but may or may not see points
+ * inserted while they run.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class ShardedKdTree {
+    
+    // the number of points beyond which a shard is split, by default
+    private static final int DEFAULT_MAX_SHARD_SIZE = 1 << 16;
+    
+    private final int maxShardSize;
+    
+    private volatile Route router;
+    
+    // guards the replacement of the router, so that no split is lost
+    private final Object routerLock = new Object();
+    
+    private final AtomicInteger size = new AtomicInteger();
+    
+    /**
+     * Construct an empty set of points, split into shards of at most
+     * 65536 points.
+     */
+    public ShardedKdTree() {
+        this(DEFAULT_MAX_SHARD_SIZE);
+    }
+    
+    /**
+     * Construct an empty set of points, split into shards of at most the
+     * given number of points.
+     * 
+     * @param maxShardSize the number of points beyond which a shard is split
+     * @throws IllegalArgumentException if {@code maxShardSize} is less
+     *         than 2
+     */
+    public ShardedKdTree(int maxShardSize) {
+        if (maxShardSize < 2) throw new java.lang.IllegalArgumentException(
+                "called ShardedKdTree() with a maxShardSize less than 2");
+        this.maxShardSize = maxShardSize;
+        router = new Route(new Shard(new RectHV(0, 0, 1, 1), new KdTree()));
+    }
+    
+    /**
+     * Is the set empty?
+     * 
+     * @return {@code true} if this set is empty;
+     *         {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+    
+    /**
+     * @return the number of points in the set.
+     */
+    public int size() {
+        return size.get();
+    }
+    
+    /**
+     * @return the number of shards across which the points are spread.
+     */
+    public int shards() {
+        return shards(router);
+    }
+    
+    private static int shards(Route r) {
+        if (r.shard != null) return 1;
+        return shards(r.lb) + shards(r.rt);
+    }
+    
+    /**
+     * Add the point to the set (if it is not already in the set).
+     * 
+     * @param p the point to add
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public void insert(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called insert() with a null Point2D");
+        while (true) {
+            Shard shard = route(p);
+            shard.lock.writeLock().lock();
+            try {
+                if (shard.retired) continue;
+                int before = shard.kdtree.size();
+                shard.kdtree.insert(p);
+                if (shard.kdtree.size() == before) return;
+                size.incrementAndGet();
+                if (shard.kdtree.size() > maxShardSize) split(shard);
+                return;
+            }
+            finally {
+                shard.lock.writeLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * Remove the point from the set (if it is in the set).
+     * 
+     * Shards are never merged, so a shard may be left holding few points.
+     * 
+     * @param p the point to remove
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public void remove(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called remove() with a null Point2D");
+        while (true) {
+            Shard shard = route(p);
+            shard.lock.writeLock().lock();
+            try {
+                if (shard.retired) continue;
+                int before = shard.kdtree.size();
+                shard.kdtree.remove(p);
+                if (shard.kdtree.size() != before) size.decrementAndGet();
+                return;
+            }
+            finally {
+                shard.lock.writeLock().unlock();
+            }
+        }
+    }
+    
+    /**
+     * Does the set contain point p?
+     * 
+     * @param p the point to look for
+     * @return {@code true} if the set contains point p;
+     *         {@code false} otherwise
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public boolean contains(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called contains() with a null Point2D");
+        while (true) {
+            Shard shard = route(p);
+            shard.lock.readLock().lock();
+            try {
+                if (!shard.retired) return shard.kdtree.contains(p);
+            }
+            finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+    }
+    
+    // return the shard whose rectangle holds p, in the current router
+    private Shard route(Point2D p) {
+        Route r = router;
+        while (r.shard == null) {
+            if (r.key(p) < r.split) r = r.lb;
+            else r = r.rt;
+        }
+        return r.shard;
+    }
+    
+    /**
+     * Split the given shard, whose write lock is held, in two at the median
+     * of its points along its longer side, publish a router in which its
+     * leaf has become that split, and retire it.
+     */
+    private void split(Shard shard) {
+        Point2D[] points = PointArrays.toArray(
+                shard.kdtree.range(shard.rect), "split()");
+        
+        // Prefer the longer side, but not if every point shares one value
+        // along it
+        boolean vertical = shard.rect.width() >= shard.rect.height();
+        double split = median(points, vertical);
+        if (Double.isNaN(split)) {
+            vertical = !vertical;
+            split = median(points, vertical);
+        }
+        
+        Stack<Point2D> lower = new Stack<>();
+        Stack<Point2D> upper = new Stack<>();
+        for (Point2D p: points) {
+            if ((vertical ? p.x() : p.y()) < split) lower.push(p);
+            else upper.push(p);
+        }
+        RectHV r = shard.rect;
+        RectHV lowerRect = vertical
+                ? new RectHV(r.xmin(), r.ymin(), split, r.ymax())
+                : new RectHV(r.xmin(), r.ymin(), r.xmax(), split);
+        RectHV upperRect = vertical
+                ? new RectHV(split, r.ymin(), r.xmax(), r.ymax())
+                : new RectHV(r.xmin(), split, r.xmax(), r.ymax());
+        Route route = new Route(vertical, split,
+                new Route(new Shard(lowerRect, KdTree.build(lower))),
+                new Route(new Shard(upperRect, KdTree.build(upper))));
+        
+        synchronized (routerLock) {
+            router = replace(router, shard, route);
+        }
+        shard.retired = true;
+    }
+    
+    /**
+     * The median of the points along the given axis, such that at least one
+     * point lies strictly below it; or NaN if all of them share one value.
+     */
+    private static double median(Point2D[] points, boolean vertical) {
+        double[] keys = new double[points.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = vertical ? points[i].x() : points[i].y();
+        }
+        Arrays.sort(keys);
+        double median = keys[keys.length / 2];
+        if (median > keys[0]) return median;
+        for (double key: keys) {
+            if (key > median) return key;
+        }
+        return Double.NaN;
+    }
+    
+    /**
+     * Return a copy of the router rooted at r, in which the given shard's
+     * leaf is replaced by the given route.
+     */
+    private static Route replace(Route r, Shard shard, Route route) {
+        if (r.shard == shard) return route;
+        
+        // Every shard's rectangle lies wholly on one side of each split
+        // above it
+        double key = r.vertical ? shard.rect.xmin() : shard.rect.ymin();
+        if (key < r.split) {
+            return new Route(r.vertical, r.split,
+                    replace(r.lb, shard, route), r.rt);
+        }
+        return new Route(r.vertical, r.split, r.lb,
+                replace(r.rt, shard, route));
+    }
+    
+    /**
+     * All points that are inside the rectangle.
+     * 
+     * @param rect the RectHV within which to look for points
+     * @return an iterator to all of the points within the given RectHV
+     * @throws NullPointerException if {@code rect} is {@code null}
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new java.lang.NullPointerException(
+                "called range() with a null RectHV");
+        Stack<Point2D> points = new Stack<>();
+        range(router, rect, points);
+        return points;
+    }
+    
+    private static void range(Route r, RectHV rect, Stack<Point2D> points) {
+        if (r.shard == null) {
+            double min = r.vertical ? rect.xmin() : rect.ymin();
+            double max = r.vertical ? rect.xmax() : rect.ymax();
+            if (min < r.split) range(r.lb, rect, points);
+            if (max >= r.split) range(r.rt, rect, points);
+            return;
+        }
+        
+        // A retired shard still holds every point it held when it was split
+        Shard shard = r.shard;
+        shard.lock.readLock().lock();
+        try {
+            for (Point2D p: shard.kdtree.range(rect)) points.push(p);
+        }
+        finally {
+            shard.lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * A nearest neighbor in the set to point p; null if the set is empty.
+     * 
+     * @param p the point from which to search for a neighbor
+     * @return the nearest neighbor to the given point p,
+     *         {@code null} otherwise.
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called nearest() with a null Point2D");
+        Point2D champion = null;
+        double best = Double.POSITIVE_INFINITY;
+        
+        // Visit the router's regions nearest first, starting with p's own
+        MinPQ<Candidate> pq = new MinPQ<>();
+        pq.insert(new Candidate(router, new RectHV(0, 0, 1, 1), p));
+        while (!pq.isEmpty()) {
+            Candidate c = pq.delMin();
+            if (c.distance >= best) break;
+            Route r = c.route;
+            if (r.shard == null) {
+                RectHV b = c.rect;
+                RectHV lower = r.vertical
+                        ? new RectHV(b.xmin(), b.ymin(), r.split, b.ymax())
+                        : new RectHV(b.xmin(), b.ymin(), b.xmax(), r.split);
+                RectHV upper = r.vertical
+                        ? new RectHV(r.split, b.ymin(), b.xmax(), b.ymax())
+                        : new RectHV(b.xmin(), r.split, b.xmax(), b.ymax());
+                pq.insert(new Candidate(r.lb, lower, p));
+                pq.insert(new Candidate(r.rt, upper, p));
+                continue;
+            }
+            
+            Point2D q;
+            r.shard.lock.readLock().lock();
+            try {
+                q = r.shard.kdtree.nearest(p);
+            }
+            finally {
+                r.shard.lock.readLock().unlock();
+            }
+            if (q != null && q.distanceSquaredTo(p) < best) {
+                champion = q;
+                best = q.distanceSquaredTo(p);
+            }
+        }
+        return champion;
+    }
+    
+    /**
+     * A region of the router, keyed by its squared distance from the query
+     * point.
+     */
+    private static class Candidate implements Comparable<Candidate> {
+        private final Route route;
+        private final RectHV rect;
+        private final double distance;
+        
+        private Candidate(Route route, RectHV rect, Point2D p) {
+            this.route = route;
+            this.rect = rect;
+            this.distance = rect.distanceSquaredTo(p);
+        }
+        
+        @Override
+        public int compareTo(Candidate that) {
+            return Double.compare(this.distance, that.distance);
+        }
+    }
+    
+    /**
+     * The immutable data structure from which the router is created: either
+     * a split, with a route to either side of it, or a leaf holding a shard.
+     */
+    private static class Route {
+        
+        // is this a split along the x-axis, rather than the y-axis?
+        private final boolean vertical;
+        
+        // points whose key is less than this go left/bottom
+        private final double split;
+        
+        // the left/bottom route
+        private final Route lb;
+        
+        // the right/top route
+        private final Route rt;
+        
+        // the shard, if this is a leaf
+        private final Shard shard;
+        
+        private Route(boolean vertical, double split, Route lb, Route rt) {
+            this.vertical = vertical;
+            this.split = split;
+            this.lb = lb;
+            this.rt = rt;
+            this.shard = null;
+        }
+        
+        private Route(Shard shard) {
+            this.vertical = false;
+            this.split = 0;
+            this.lb = null;
+            this.rt = null;
+            this.shard = shard;
+        }
+        
+        private double key(Point2D p) {
+            return vertical ? p.x() : p.y();
+        }
+    }
+    
+    /**
+     * A KdTree holding the points within a rectangle, and the lock which
+     * guards it.
+     */
+    private static class Shard {
+        private final RectHV rect;
+        private final KdTree kdtree;
+        private final ReentrantReadWriteLock lock =
+                new ReentrantReadWriteLock();
+        
+        // has this shard been split, and its points moved elsewhere?
+        // Guarded by lock.
+        private boolean retired;
+        
+        private Shard(RectHV rect, KdTree kdtree) {
+            this.rect = rect;
+            this.kdtree = kdtree;
+        }
+    }
+    
+    /**
+     * Unit testing of the methods (optional).
+     * 
+     * Inserts points from several threads at once, then checks that every
+     * point is found, and that range() and nearest() agree with a KdTree.
+     * 
+     * @param args the number of points, the number of writer threads, and
+     *        the greatest shard size
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int writers = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        int maxShardSize = args.length > 2 ? Integer.parseInt(args[2])
+                : 10000;
+        
+        final Point2D[] points = new Point2D[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+        }
+        final ShardedKdTree sharded = new ShardedKdTree(maxShardSize);
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(writers);
+        
+        long start = System.nanoTime();
+        for (int w = 0; w < writers; w++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = next.getAndIncrement(); i < points.length;
+                            i = next.getAndIncrement()) {
+                        sharded.insert(points[i]);
+                    }
+                    finished.countDown();
+                }
+            }).start();
+        }
+        finished.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        
+        KdTree kdtree = KdTree.build(points);
+        int failures = 0;
+        if (sharded.size() != kdtree.size()) failures++;
+        for (Point2D p: points) {
+            if (!sharded.contains(p)) failures++;
+        }
+        for (int i = 0; i < 1000; i++) {
+            Point2D p = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+            if (sharded.nearest(p).distanceSquaredTo(p)
+                    != kdtree.nearest(p).distanceSquaredTo(p)) {
+                failures++;
+            }
+            RectHV rect = new RectHV(p.x() * 0.9, p.y() * 0.9, p.x(), p.y());
+            int count = 0;
+            for (Point2D q: sharded.range(rect)) count++;
+            if (count != kdtree.rangeCount(rect)) failures++;
+        }
+        
+        StdOut.printf("%d inserts in %.2f s by %d writers, into %d shards%n",
+                n, seconds, writers, sharded.shards());
+        StdOut.println(failures + " failures");
+        if (failures > 0) System.exit(1);
+    }
+}
@@ -0,0 +1,430 @@
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.Stack;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * This mutable data type represents a set of points in the "Unit Square",
+ * built for a high rate of insertions.
+ * 
+ * Rather than indexing each point as it arrives, insert() appends it to a
+ * buffer of coordinates, which queries scan linearly.  Once the buffer
+ * fills up, it is sealed into a small FlatKdTree, and a background thread
+ * merges the sealed buffers into levels of FlatKdTrees, following the
+ * logarithmic method: level i holds at most B * 2^i points, so a sealed
+ * buffer is merged together with levels 0 through j - 1 into a single
+ * FlatKdTree at the first empty level j, just as carries propagate when
+ * adding one to a binary counter.
+ * 
+ * Each point is therefore rebuilt into O(log (n / B)) FlatKdTrees over its
+ * lifetime, which is amortized O(log n) work per insertion, and done off
+ * of the inserting thread.  Queries fan out across the buffer, the sealed
+ * buffers and the O(log (n / B)) levels, each of which is a balanced tree.
+ * 
+ * Duplicates are caught by an open-addressing hash table of every point in
+ * the set, which costs 32 bytes per point on top of the 16 of the levels,
+ * but which spares insert() a search through every level.
+ * 
+ * The sealed buffers and levels are published together, as one immutable
+ * State in a volatile field, so that a query sees each point exactly once
+ * even as merges complete around it.  The buffer itself is not published:
+ * as with KdTree, insert() and the queries must all be called from one
+ * thread, or be synchronized externally.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class StreamingKdTree {
+    
+    // the buffer size used by the no-argument constructor
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+    
+    private final int bufferSize;
+    private double[] xs;
+    private double[] ys;
+    private int buffered;
+    
+    // the bits of the coordinates of every point in the set, interleaved
+    // x then y in each occupied slot, probed linearly
+    private long[] hashed = new long[32];
+    private boolean[] occupied = new boolean[16];
+    private int size;
+    
+    // guards each replacement of state
+    private final Object lock = new Object();
+    private volatile State state = new State(new FlatKdTree[0],
+            new FlatKdTree[0]);
+    
+    // runs merges one at a time, in the order they were asked for
+    private final ThreadPoolExecutor merger;
+    
+    /**
+     * Construct an empty set of points, with a buffer of 1024 points.
+     */
+    public StreamingKdTree() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+    
+    /**
+     * Construct an empty set of points, with a buffer of the given number
+     * of points.
+     * 
+     * @param bufferSize the number of points buffered before indexing
+     * @throws IllegalArgumentException if {@code bufferSize} is not positive
+     */
+    public StreamingKdTree(int bufferSize) {
+        if (bufferSize <= 0) throw new java.lang.IllegalArgumentException(
+                "called StreamingKdTree() with a non-positive buffer size");
+        this.bufferSize = bufferSize;
+        xs = new double[bufferSize];
+        ys = new double[bufferSize];
+        
+        // A single daemon thread, which goes away while there's no work
+        merger = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "StreamingKdTree-merger");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        merger.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * Is the set empty?
+     * 
+     * @return {@code true} if this set is empty;
+     *         {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * @return the number of points in the set.
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Add the point to the set (if it is not already in the set).
+     * 
+     * This takes constant amortized time, except when the buffer fills up,
+     * when it takes time proportional to B log B to seal it.
+     * 
+     * @param p the point to add
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public void insert(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called insert() with a null Point2D");
+        
+        // Duplicates are silently dropped
+        if (!add(p.x(), p.y())) return;
+        
+        xs[buffered] = p.x();
+        ys[buffered] = p.y();
+        if (++buffered == bufferSize) seal();
+    }
+    
+    /**
+     * Add (x, y) to the hash table, unless it's already there.
+     * 
+     * @return {@code true} if the point was added;
+     *         {@code false} if it was already in the set
+     */
+    private boolean add(double x, double y) {
+        int i = find(x, y);
+        if (occupied[i]) return false;
+        occupied[i] = true;
+        hashed[2 * i] = bits(x);
+        hashed[2 * i + 1] = bits(y);
+        
+        // Keep the table at most half full
+        if (++size * 2 > occupied.length) {
+            long[] oldHashed = hashed;
+            boolean[] oldOccupied = occupied;
+            hashed = new long[2 * oldHashed.length];
+            occupied = new boolean[2 * oldOccupied.length];
+            for (int j = 0; j < oldOccupied.length; j++) {
+                if (!oldOccupied[j]) continue;
+                int k = slot(oldHashed[2 * j], oldHashed[2 * j + 1]);
+                while (occupied[k]) k = (k + 1) & (occupied.length - 1);
+                occupied[k] = true;
+                hashed[2 * k] = oldHashed[2 * j];
+                hashed[2 * k + 1] = oldHashed[2 * j + 1];
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * The slot holding (x, y), or else the empty slot at which its probe
+     * ends.
+     */
+    private int find(double x, double y) {
+        long bx = bits(x);
+        long by = bits(y);
+        int i = slot(bx, by);
+        while (occupied[i]) {
+            if (hashed[2 * i] == bx && hashed[2 * i + 1] == by) return i;
+            i = (i + 1) & (occupied.length - 1);
+        }
+        return i;
+    }
+    
+    // the bits of a coordinate, with -0.0 made 0.0 so that they are equal
+    private static long bits(double v) {
+        return Double.doubleToLongBits(v + 0.0);
+    }
+    
+    // the slot at which the probe for the given coordinate bits starts
+    private int slot(long bx, long by) {
+        long h = (bx * 31 + by) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (occupied.length - 1);
+    }
+    
+    /**
+     * Index the buffer as a FlatKdTree, queue it up to be merged, and start
+     * a new buffer.
+     */
+    private void seal() {
+        if (buffered == 0) return;
+        FlatKdTree tree = new FlatKdTree(Arrays.copyOf(xs, buffered),
+                Arrays.copyOf(ys, buffered));
+        synchronized (lock) {
+            State s = state;
+            FlatKdTree[] sealed = Arrays.copyOf(s.sealed, s.sealed.length + 1);
+            sealed[s.sealed.length] = tree;
+            state = new State(sealed, s.levels);
+        }
+        buffered = 0;
+        merger.execute(new Runnable() {
+            @Override
+            public void run() {
+                merge();
+            }
+        });
+    }
+    
+    /**
+     * Merge every sealed buffer into the levels, one at a time.
+     * 
+     * Only the merger thread changes the levels, so they can be read
+     * without the lock, and only the replacement of state need hold it.
+     */
+    private void merge() {
+        while (true) {
+            State s = state;
+            if (s.sealed.length == 0) return;
+            
+            // Find the first empty level, and the points bound for it
+            FlatKdTree[] levels = s.levels;
+            int j = 0;
+            int n = s.sealed[0].size();
+            while (j < levels.length && levels[j] != null) {
+                n += levels[j++].size();
+            }
+            double[] x = new double[n];
+            double[] y = new double[n];
+            int i = copy(s.sealed[0], x, y, 0);
+            for (int level = 0; level < j; level++) {
+                i = copy(levels[level], x, y, i);
+            }
+            
+            FlatKdTree[] merged = Arrays.copyOf(levels,
+                    Math.max(levels.length, j + 1));
+            Arrays.fill(merged, 0, j, null);
+            merged[j] = new FlatKdTree(x, y);
+            
+            synchronized (lock) {
+                FlatKdTree[] sealed = state.sealed;
+                state = new State(Arrays.copyOfRange(sealed, 1, sealed.length),
+                        merged);
+            }
+        }
+    }
+    
+    // copy the points of tree into x and y, from index i
+    private static int copy(FlatKdTree tree, double[] x, double[] y, int i) {
+        for (int k = 0; k < tree.size(); k++) {
+            x[i] = tree.x(k);
+            y[i++] = tree.y(k);
+        }
+        return i;
+    }
+    
+    /**
+     * Index the buffer, and wait for every merge to finish.
+     * 
+     * Queries don't need this; it's for bringing the levels to rest, such
+     * as before measuring queries.
+     */
+    public void flush() {
+        seal();
+        
+        // Merges run in order, so this one runs after all that came before
+        try {
+            merger.submit(new Runnable() {
+                @Override
+                public void run() {
+                    merge();
+                }
+            }).get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            throw new java.lang.IllegalStateException(
+                    "merge failed", e.getCause());
+        }
+    }
+    
+    /**
+     * Does the set contain point p?
+     * 
+     * @param p the point to look for
+     * @return {@code true} if the set contains point p;
+     *         {@code false} otherwise
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public boolean contains(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called contains() with a null Point2D");
+        return occupied[find(p.x(), p.y())];
+    }
+    
+    /**
+     * All points that are inside the rectangle.
+     * 
+     * @param rect the RectHV within which to look for points
+     * @return an iterator to all of the points within the given RectHV
+     * @throws NullPointerException if {@code rect} is {@code null}
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) throw new java.lang.NullPointerException(
+                "called range() with a null RectHV");
+        Stack<Point2D> points = new Stack<>();
+        for (int i = 0; i < buffered; i++) {
+            double x = xs[i];
+            double y = ys[i];
+            if (x >= rect.xmin() && x <= rect.xmax()
+                    && y >= rect.ymin() && y <= rect.ymax()) {
+                points.push(new Point2D(x, y));
+            }
+        }
+        State s = state;
+        for (FlatKdTree tree: s.sealed) {
+            for (Point2D p: tree.range(rect)) points.push(p);
+        }
+        for (FlatKdTree tree: s.levels) {
+            if (tree == null) continue;
+            for (Point2D p: tree.range(rect)) points.push(p);
+        }
+        return points;
+    }
+    
+    /**
+     * A nearest neighbor in the set to point p; null if the set is empty.
+     * 
+     * @param p the point from which to search for a neighbor
+     * @return the nearest neighbor to the given point p,
+     *         {@code null} otherwise.
+     * @throws NullPointerException if {@code p} is {@code null}
+     */
+    public Point2D nearest(Point2D p) {
+        if (p == null) throw new java.lang.NullPointerException(
+                "called nearest() with a null Point2D");
+        Point2D champion = null;
+        double championDistance = Double.POSITIVE_INFINITY;
+        int best = -1;
+        for (int i = 0; i < buffered; i++) {
+            double dx = xs[i] - p.x();
+            double dy = ys[i] - p.y();
+            double d = dx * dx + dy * dy;
+            if (d < championDistance) {
+                championDistance = d;
+                best = i;
+            }
+        }
+        if (best >= 0) champion = new Point2D(xs[best], ys[best]);
+        
+        State s = state;
+        for (FlatKdTree tree: s.sealed) {
+            Point2D q = tree.nearest(p);
+            if (q.distanceSquaredTo(p) < championDistance) {
+                champion = q;
+                championDistance = q.distanceSquaredTo(p);
+            }
+        }
+        for (FlatKdTree tree: s.levels) {
+            if (tree == null) continue;
+            Point2D q = tree.nearest(p);
+            if (q.distanceSquaredTo(p) < championDistance) {
+                champion = q;
+                championDistance = q.distanceSquaredTo(p);
+            }
+        }
+        return champion;
+    }
+    
+    /**
+     * The sealed buffers awaiting a merge, and the levels, as of one moment.
+     */
+    private static class State {
+        
+        // the sealed buffers, oldest first
+        private final FlatKdTree[] sealed;
+        
+        // level i holds at most B * 2^i points, or is null
+        private final FlatKdTree[] levels;
+        
+        private State(FlatKdTree[] sealed, FlatKdTree[] levels) {
+            this.sealed = sealed;
+            this.levels = levels;
+        }
+    }
+    
+    /**
+     * Unit testing of the methods (optional).
+     * @param args
+     */
+    public static void main(String[] args) {
+        StreamingKdTree streaming = new StreamingKdTree(64);
+        for (int i = 0; i < 10000; i++) {
+            streaming.insert(new Point2D(StdRandom.uniform(),
+                    StdRandom.uniform()));
+        }
+        streaming.flush();
+        StdOut.println(streaming.size() + " "
+                + streaming.nearest(new Point2D(0.5, 0.5)));
+    }
+}
@@ -0,0 +1,109 @@
+import benchmarks.PointIndex;
+import benchmarks.Workload;
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The default package's side of benchmarks.Workload: it wraps KdTree and
+ * PointSET as PointIndexes, and generates data just as KdTreeBenchmark does.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public class JmhWorkload implements Workload {
+    
+    @Override
+    public PointIndex create(String structure) {
+        if (structure.equals("KdTree")) {
+            final KdTree kdtree = new KdTree();
+            return new PointIndex() {
+                @Override
+                public void insert(Point2D p) {
+                    kdtree.insert(p);
+                }
+                
+                @Override
+                public boolean contains(Point2D p) {
+                    return kdtree.contains(p);
+                }
+                
+                @Override
+                public Iterable<Point2D> range(RectHV rect) {
+                    return kdtree.range(rect);
+                }
+                
+                @Override
+                public Point2D nearest(Point2D p) {
+                    return kdtree.nearest(p);
+                }
+                
+                @Override
+                public int height() {
+                    return kdtree.height();
+                }
+            };
+        }
+        if (structure.equals("PointSET")) {
+            final PointSET set = new PointSET();
+            return new PointIndex() {
+                @Override
+                public void insert(Point2D p) {
+                    set.insert(p);
+                }
+                
+                @Override
+                public boolean contains(Point2D p) {
+                    return set.contains(p);
+                }
+                
+                @Override
+                public Iterable<Point2D> range(RectHV rect) {
+                    return set.range(rect);
+                }
+                
+                @Override
+                public Point2D nearest(Point2D p) {
+                    return set.nearest(p);
+                }
+                
+                @Override
+                public int height() {
+                    return -1;
+                }
+            };
+        }
+        throw new java.lang.IllegalArgumentException(
+                "unknown structure: " + structure);
+    }
+    
+    @Override
+    public Point2D[] dataset(String name, int n) {
+        return KdTreeBenchmark.dataset(name, n);
+    }
+    
+    @Override
+    public RectHV[] rectangles(double selectivity, int n) {
+        return KdTreeBenchmark.rectangles(selectivity, n);
+    }
+    
+    @Override
+    public Point2D[] queries(Point2D[] points, int n) {
+        return KdTreeBenchmark.queries(points, n);
+    }
+}
@@ -0,0 +1,59 @@
+package benchmarks;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.StdRandom;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The points a structure is benchmarked on: n points drawn from one of four
+ * distributions, as described in KdTreeBenchmark, and the same in every
+ * fork.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+@State(Scope.Benchmark)
+public class Dataset {
+    
+    // the seed of every dataset, so that every fork sees the same points
+    static final long SEED = 20161017L;
+    
+    @Param({"KdTree", "PointSET"})
+    public String structure;
+    
+    @Param({"uniform", "clustered", "sorted", "grid"})
+    public String dataset;
+    
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int n;
+    
+    Workload workload;
+    Point2D[] points;
+    
+    @Setup(Level.Trial)
+    public void generate() {
+        StdRandom.setSeed(SEED);
+        workload = Workload.get();
+        points = workload.dataset(dataset, n);
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import edu.princeton.cs.algs4.Point2D;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A structure holding every point of the dataset, and the QUERIES query
+ * points cycled through by the benchmarks which search it.
+ * 
+ * The height of the tree is printed as it is loaded, into each fork's
+ * output.  (JMH's secondary results are summed across iterations, so they
+ * can't report it.)
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+@State(Scope.Benchmark)
+public class Loaded {
+    
+    // the number of distinct queries cycled through, a power of 2
+    static final int QUERIES = 1 << 12;
+    
+    PointIndex index;
+    Point2D[] queries;
+    
+    @Setup(Level.Trial)
+    public void load(Dataset d) {
+        index = d.workload.create(d.structure);
+        for (Point2D p: d.points) index.insert(p);
+        queries = d.workload.queries(d.points, QUERIES);
+        if (index.height() >= 0) {
+            System.out.println("height: " + index.height());
+        }
+    }
+}
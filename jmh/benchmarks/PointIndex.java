@@ -0,0 +1,42 @@
+package benchmarks;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The operations benchmarked, common to KdTree and PointSET.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public interface PointIndex {
+    
+    void insert(Point2D p);
+    
+    boolean contains(Point2D p);
+    
+    Iterable<Point2D> range(RectHV rect);
+    
+    Point2D nearest(Point2D p);
+    
+    /**
+     * @return the height of the tree, or -1 if the structure is not a tree
+     */
+    int height();
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Measures range() on a structure holding every point of the dataset, at
+ * three selectivities, as the fraction of the unit square covered by each
+ * query rectangle.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx3g", "--add-modules",
+        "jdk.incubator.vector"})
+public class RangeBenchmark {
+    
+    @State(Scope.Benchmark)
+    public static class Rectangles {
+        
+        @Param({"0.0001", "0.01", "0.1"})
+        public double selectivity;
+        
+        RectHV[] rects;
+        
+        @Setup(Level.Trial)
+        public void generate(Dataset d) {
+            rects = d.workload.rectangles(selectivity, Loaded.QUERIES);
+        }
+    }
+    
+    @Benchmark
+    public void range(Loaded loaded, Rectangles rectangles, Cursor cursor,
+            Blackhole bh) {
+        for (Point2D p: loaded.index.range(rectangles.rects[cursor.next()])) {
+            bh.consume(p);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * The structures benchmarked, and the points and queries they are
+ * benchmarked on.
+ * 
+ * JMH only generates benchmarks for classes in a named package, while the
+ * 2d-trees all live in the default package, which no named package can
+ * refer to.  So the benchmarks reach them through this interface, which
+ * JmhWorkload implements from within the default package, and which get()
+ * loads by name.
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+public interface Workload {
+    
+    /**
+     * @return the default package's JmhWorkload
+     */
+    static Workload get() {
+        try {
+            return (Workload) Class.forName("JmhWorkload")
+                    .getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(
+                    "JmhWorkload is missing from the classpath", e);
+        }
+    }
+    
+    /**
+     * @param structure "KdTree" or "PointSET"
+     * @return an empty instance of the named structure
+     */
+    PointIndex create(String structure);
+    
+    /**
+     * @param name "uniform", "clustered", "sorted" or "grid"
+     * @return n points drawn from the named distribution
+     */
+    Point2D[] dataset(String name, int n);
+    
+    /**
+     * @return n square query rectangles, each covering the given fraction
+     *         of the unit square
+     */
+    RectHV[] rectangles(double selectivity, int n);
+    
+    /**
+     * @return n query points, half of them drawn from the given points
+     */
+    Point2D[] queries(Point2D[] points, int n);
+}
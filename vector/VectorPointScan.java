@@ -0,0 +1,110 @@
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * Copyright (C) 2016 Michael <GrubenM@GMail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * A PointScan which tests as many points at a time as the CPU's widest
+ * vector of doubles holds: 2 with SSE or NEON, 4 with AVX2, 8 with AVX-512.
+ * 
+ * Both scans rarely find anything in a given vector of points, a nearer
+ * point or one within the rectangle, so each vector is tested as a whole,
+ * and only where some lane passes are its lanes visited one at a time.
+ * The points past the last whole vector are scanned as PointScan does.
+ * 
+ * This needs the jdk.incubator.vector module, both to compile and to run,
+ * so it is kept in its own source directory, compiled apart from the rest;
+ * it is only ever loaded, by name, by PointScan.get().
+ * 
+ * @author Michael <GrubenM@GMail.com>
+ */
+class VectorPointScan extends PointScan {
+    
+    private static final VectorSpecies<Double> SPECIES =
+            DoubleVector.SPECIES_PREFERRED;
+    
+    @Override
+    int nearest(double[] xs, double[] ys, int n, double x, double y) {
+        int champion = -1;
+        double best = Double.POSITIVE_INFINITY;
+        int lanes = SPECIES.length();
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += lanes) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, xs, i).sub(x);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, ys, i).sub(y);
+            DoubleVector d = dx.mul(dx).add(dy.mul(dy));
+            VectorMask<Double> nearer = d.compare(VectorOperators.LT, best);
+            if (!nearer.anyTrue()) continue;
+            for (int lane = 0; lane < lanes; lane++) {
+                double dl = d.lane(lane);
+                if (dl < best) {
+                    champion = i + lane;
+                    best = dl;
+                }
+            }
+        }
+        for (; i < n; i++) {
+            double dx = xs[i] - x;
+            double dy = ys[i] - y;
+            double d = dx * dx + dy * dy;
+            if (d < best) {
+                champion = i;
+                best = d;
+            }
+        }
+        return champion;
+    }
+    
+    @Override
+    int range(double[] xs, double[] ys, int lo, int hi, double xmin,
+            double ymin, double xmax, double ymax, int[] indices) {
+        int count = 0;
+        int lanes = SPECIES.length();
+        int bound = lo + SPECIES.loopBound(hi - lo);
+        int i = lo;
+        for (; i < bound; i += lanes) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, xs, i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, ys, i);
+            VectorMask<Double> inside = vx.compare(VectorOperators.GE, xmin)
+                    .and(vx.compare(VectorOperators.LE, xmax))
+                    .and(vy.compare(VectorOperators.GE, ymin))
+                    .and(vy.compare(VectorOperators.LE, ymax));
+            long bits = inside.toLong();
+            while (bits != 0) {
+                indices[count++] = i + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        for (; i < hi; i++) {
+            if (xs[i] >= xmin && xs[i] <= xmax
+                    && ys[i] >= ymin && ys[i] <= ymax) {
+                indices[count++] = i;
+            }
+        }
+        return count;
+    }
+    
+    @Override
+    public String toString() {
+        return "vector (" + SPECIES.length() + " doubles)";
+    }
+}